@@ -25,10 +25,20 @@
  */
 package com.longlinkislong.plugin;
 
+import java.lang.invoke.MethodHandle;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * A simplified implementation of PluginHandler that can be used by most
@@ -40,6 +50,7 @@ import java.util.Optional;
 public abstract class AbstractPluginHandler<BaseType> implements PluginHandler<BaseType> {
 
     private final Map<String, PluginDescriptor> registeredPlugins = new HashMap<>();
+    private final Map<Class<?>, Map<String, PluginDescriptor>> capabilities = new HashMap<>();
 
     /**
      * Retrieves the PluginManager used. The simplest implementation of
@@ -57,7 +68,19 @@ public abstract class AbstractPluginHandler<BaseType> implements PluginHandler<B
             final Class<? extends BaseType> typedClazz = (Class<? extends BaseType>) plugin.clazz;
             final PluginSelector<String, BaseType> selector = PluginSelector.singletonSelector(plugin.lookup, typedClazz);
 
-            this.registeredPlugins.put(plugin.lookup, plugin);
+            final PluginDescriptor replaced = this.registeredPlugins.put(plugin.lookup, plugin);
+
+            if (replaced != null) {
+                for (Class<?> capability : ReflectionUtil.getSupertypes(replaced.clazz)) {
+                    this.capabilities.get(capability).remove(plugin.lookup);
+                }
+            }
+
+            for (Class<?> capability : ReflectionUtil.getSupertypes(plugin.clazz)) {
+                this.capabilities.computeIfAbsent(capability, key -> new LinkedHashMap<>())
+                        .put(plugin.lookup, plugin);
+            }
+
             this.getPluginManager().registerSelector(selector);
 
             return true;
@@ -68,11 +91,85 @@ public abstract class AbstractPluginHandler<BaseType> implements PluginHandler<B
 
     @Override
     public Optional<BaseType> newInstance(final String id, Object... params) {
-        if(!this.getPluginManager().listPlugins().contains(id)){
-            return Optional.empty();
-        }
+        return this.getPluginManager().tryGetImplementation(id, params);
+    }
+
+    /**
+     * Resolves the factory used for creating new instances of the plugin.
+     *
+     * @param id the id of the plugin
+     * @param params optional parameters for calling the plugin
+     * @return the factory. May return empty if no plugin was registered with
+     * the given id.
+     * @see PluginManager#getFactory(java.lang.Object, java.lang.Object...)
+     */
+    public Optional<MethodHandle> getFactory(final String id, Object... params) {
+        return this.getPluginManager().getFactory(id, params);
+    }
+
+    @Override
+    public void warmUp(final String id, final boolean initialize) {
+        this.getPluginManager().warmUp(id, initialize);
+    }
+
+    /**
+     * Warms up every plugin registered with this PluginHandler in parallel.
+     *
+     * @param executor the executor to run the warm up on.
+     * @param initialize if the classes and singletons should be initialized.
+     * @param listener the progress listener. It is called as each plugin
+     * completes with either null or the cause of the failure.
+     * @return a future that completes with each plugin that failed to warm up
+     * and its cause.
+     * @see PluginManager#warmUp(java.util.concurrent.Executor, boolean, java.util.function.BiConsumer)
+     */
+    public CompletableFuture<Map<String, Throwable>> warmUp(
+            final Executor executor,
+            final boolean initialize,
+            final BiConsumer<? super String, ? super Throwable> listener) {
+
+        return ParallelTasks.forEach(
+                this.registeredPlugins.keySet(),
+                id -> this.warmUp(id, initialize),
+                executor,
+                listener);
+    }
+
+    /**
+     * Calls every plugin registered with this PluginHandler whose class is a
+     * subtype of the capability in parallel. A new instance of each plugin is
+     * created and passed to the call on the executor. Each call that does not
+     * complete within the timeout is reported as timed out.
+     *
+     * @param <Capability> the class or interface the plugins must implement.
+     * @param <Result> the type returned by the call.
+     * @param capability the class or interface the plugins must implement.
+     * @param call the call to make on each plugin.
+     * @param executor the executor to run the calls on.
+     * @param timeout the time each call is given to complete.
+     * @param unit the unit of the timeout.
+     * @return a future that completes with the result of each call in the
+     * order the calls completed.
+     * @see PluginScanner#broadcast(java.lang.Class, java.util.function.Function, java.util.concurrent.Executor, long, java.util.concurrent.TimeUnit)
+     */
+    public <Capability, Result> CompletableFuture<List<BroadcastResult<Result>>> broadcast(
+            final Class<Capability> capability,
+            final Function<? super Capability, ? extends Result> call,
+            final Executor executor,
+            final long timeout,
+            final TimeUnit unit) {
 
-        return Optional.ofNullable((BaseType) this.getPluginManager().getImplementation(id, params));
+        final List<String> lookups = this.listPlugins(capability).stream()
+                .map(plugin -> plugin.lookup)
+                .collect(Collectors.toList());
+
+        return ParallelTasks.broadcast(
+                lookups,
+                id -> call.apply(capability.cast(this.newInstance(id)
+                        .orElseThrow(() -> new PluginException("Unable to create plugin: " + id)))),
+                executor,
+                timeout,
+                unit);
     }
 
     /**
@@ -114,6 +211,23 @@ public abstract class AbstractPluginHandler<BaseType> implements PluginHandler<B
         return registeredPlugins.values();
     }
 
+    /**
+     * List all plugins registered with this PluginHandler whose class is a
+     * subtype of the capability. This is a single lookup into an index that
+     * is built as plugins are registered.
+     *
+     * @param capability the class or interface the plugins must implement.
+     * @return collection of each matching PluginDescriptor.
+     */
+    @Override
+    public Collection<PluginDescriptor> listPlugins(final Class<?> capability) {
+        final Map<String, PluginDescriptor> plugins = this.capabilities.get(capability);
+
+        return (plugins == null)
+                ? Collections.emptyList()
+                : Collections.unmodifiableCollection(plugins.values());
+    }
+
     @Override
     public Optional<PluginDescriptor> getDescriptor(String lookup) {
         return Optional.ofNullable(this.registeredPlugins.get(lookup));
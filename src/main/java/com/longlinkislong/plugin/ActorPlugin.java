@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every call to a plugin on one thread at a time. Calls are added to a
+ * bounded queue by any number of threads and are drained in batches by a
+ * single task on the executor. This is suited to plugins that are not thread
+ * safe, since callers never contend on a lock; a call made while the queue
+ * is full is rejected instead of blocking the caller.
+ *
+ * @author zmichaels
+ * @param <PluginType> the type of plugin.
+ * @since 26.10.18
+ * @see PluginManager#getActorImplementation(java.lang.Object, int, java.util.concurrent.Executor)
+ */
+public final class ActorPlugin<PluginType> {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final HotSwapPlugin<PluginType> plugin;
+    private final Executor executor;
+    private final int capacity;
+    private final int batchSize;
+    private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Constructs a new ActorPlugin.
+     *
+     * @param plugin the plugin to call.
+     * @param capacity the maximum number of calls that may be queued.
+     * @param executor the executor that runs the calls.
+     * @since 26.10.18
+     */
+    public ActorPlugin(final HotSwapPlugin<PluginType> plugin, final int capacity, final Executor executor) {
+        this(plugin, capacity, DEFAULT_BATCH_SIZE, executor);
+    }
+
+    /**
+     * Constructs a new ActorPlugin.
+     *
+     * @param plugin the plugin to call.
+     * @param capacity the maximum number of calls that may be queued.
+     * @param batchSize the maximum number of calls run by each task before
+     * the executor is yielded.
+     * @param executor the executor that runs the calls.
+     * @since 26.10.18
+     */
+    public ActorPlugin(final HotSwapPlugin<PluginType> plugin, final int capacity, final int batchSize, final Executor executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1!");
+        } else if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1!");
+        }
+
+        this.plugin = plugin;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the plugin called by the ActorPlugin.
+     *
+     * @return the plugin.
+     * @since 26.10.18
+     */
+    public HotSwapPlugin<PluginType> getPlugin() {
+        return this.plugin;
+    }
+
+    /**
+     * Retrieves the number of calls waiting to run.
+     *
+     * @return the number of queued calls.
+     * @since 26.10.18
+     */
+    public int getQueued() {
+        return this.queued.get();
+    }
+
+    /**
+     * Queues a call of the specified method.
+     *
+     * @param method the method to invoke
+     * @param params the parameters to pass
+     * @return a future that completes with the result of the call. The future
+     * fails with a RejectedExecutionException if the queue is full.
+     * @since 26.10.18
+     */
+    public CompletableFuture<Object> invoke(final String method, final Object... params) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        if (this.queued.incrementAndGet() > this.capacity) {
+            this.queued.decrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("Plugin queue is full!"));
+            return result;
+        }
+
+        this.calls.add(new Call(method, params, result));
+        this.schedule();
+
+        return result;
+    }
+
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                this.scheduled.set(false);
+                this.failQueued(ex);
+            }
+        }
+    }
+
+    private void drain() {
+        Call call;
+        int processed = 0;
+
+        try {
+            while (processed < this.batchSize && (call = this.calls.poll()) != null) {
+                this.queued.decrementAndGet();
+                processed++;
+
+                try {
+                    call.result.complete(this.plugin.invoke(call.method, call.params));
+                } catch (Throwable ex) {
+                    // Errors must fail the call too, or its future never completes
+                    call.result.completeExceptionally(ex);
+                }
+            }
+        } finally {
+            this.scheduled.set(false);
+
+            // calls queued after the last poll are not lost
+            if (!this.calls.isEmpty()) {
+                this.schedule();
+            }
+        }
+    }
+
+    private void failQueued(final Throwable cause) {
+        Call call;
+
+        while ((call = this.calls.poll()) != null) {
+            this.queued.decrementAndGet();
+            call.result.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Call {
+
+        private final String method;
+        private final Object[] params;
+        private final CompletableFuture<Object> result;
+
+        Call(final String method, final Object[] params, final CompletableFuture<Object> result) {
+            this.method = method;
+            this.params = params;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples indices in proportion to their weights in constant time using
+ * Vose's alias method. The table is immutable, so sampling needs neither
+ * locks nor allocation.
+ *
+ * @author zmichaels
+ */
+final class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * Builds the table.
+     *
+     * @param weights the weight of each index. Weights must be finite and not
+     * negative and at least one weight must be positive.
+     */
+    AliasTable(final double[] weights) {
+        final int size = weights.length;
+        double total = 0.0;
+
+        for (double weight : weights) {
+            if (weight < 0.0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Invalid weight: " + weight);
+            }
+
+            total += weight;
+        }
+
+        if (!(total > 0.0)) {
+            throw new IllegalArgumentException("At least one weight must be positive!");
+        }
+
+        final double[] scaled = new double[size];
+        final int[] small = new int[size];
+        final int[] large = new int[size];
+        int smallCount = 0;
+        int largeCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            scaled[i] = weights[i] * size / total;
+
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        this.probability = new double[size];
+        this.alias = new int[size];
+
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+
+            this.probability[less] = scaled[less];
+            this.alias[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // the remainder only differs from 1 by rounding error
+        while (largeCount > 0) {
+            this.probability[large[--largeCount]] = 1.0;
+        }
+
+        while (smallCount > 0) {
+            this.probability[small[--smallCount]] = 1.0;
+        }
+    }
+
+    /**
+     * Retrieves the number of indices.
+     *
+     * @return the size of the table.
+     */
+    int size() {
+        return this.probability.length;
+    }
+
+    /**
+     * Samples an index.
+     *
+     * @return the index.
+     */
+    int sample() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int column = random.nextInt(this.probability.length);
+
+        return (random.nextDouble() < this.probability[column])
+                ? column
+                : this.alias[column];
+    }
+}
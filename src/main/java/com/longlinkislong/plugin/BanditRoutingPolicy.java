@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A RoutingPolicy that shifts traffic towards the plugin with the lowest
+ * latency using an epsilon-greedy multi-armed bandit. Each plugin tracks an
+ * exponentially weighted moving average of its call latency. The fastest
+ * plugin receives all calls except for a bounded fraction that is spread
+ * uniformly across every plugin so that changes in performance are noticed.
+ * Statistics are updated without locks.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ */
+public final class BanditRoutingPolicy implements RoutingPolicy {
+
+    /**
+     * Failed calls are recorded as this many times their latency.
+     */
+    private static final int FAILURE_PENALTY = 10;
+    private static final long UNSAMPLED = Double.doubleToRawLongBits(Double.NaN);
+
+    private final int arms;
+    private final double epsilon;
+    private final double alpha;
+    private final AtomicLongArray averages;
+
+    /**
+     * Constructs a new BanditRoutingPolicy that explores 5% of the time and
+     * weighs new samples by 0.1.
+     *
+     * @param arms the number of plugins.
+     * @since 26.10.18
+     */
+    public BanditRoutingPolicy(final int arms) {
+        this(arms, 0.05, 0.1);
+    }
+
+    /**
+     * Constructs a new BanditRoutingPolicy.
+     *
+     * @param arms the number of plugins.
+     * @param epsilon the fraction of calls used for exploration. Must be in
+     * the range [0, 1].
+     * @param alpha the weight of new samples in the moving average. Must be in
+     * the range (0, 1].
+     * @since 26.10.18
+     */
+    public BanditRoutingPolicy(final int arms, final double epsilon, final double alpha) {
+        if (arms < 1) {
+            throw new IllegalArgumentException("At least one arm is required!");
+        } else if (!(epsilon >= 0.0 && epsilon <= 1.0)) {
+            throw new IllegalArgumentException("Epsilon must be in the range [0, 1]!");
+        } else if (!(alpha > 0.0 && alpha <= 1.0)) {
+            throw new IllegalArgumentException("Alpha must be in the range (0, 1]!");
+        }
+
+        this.arms = arms;
+        this.epsilon = epsilon;
+        this.alpha = alpha;
+        this.averages = new AtomicLongArray(arms);
+
+        for (int i = 0; i < arms; i++) {
+            this.averages.set(i, UNSAMPLED);
+        }
+    }
+
+    @Override
+    public int select() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (this.arms > 1 && random.nextDouble() < this.epsilon) {
+            return random.nextInt(this.arms);
+        }
+
+        int best = 0;
+        double bestAverage = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < this.arms; i++) {
+            final double average = this.getAverage(i);
+
+            if (Double.isNaN(average)) {
+                // every arm is sampled at least once
+                return i;
+            } else if (average < bestAverage) {
+                best = i;
+                bestAverage = average;
+            }
+        }
+
+        return best;
+    }
+
+    @Override
+    public void record(final int index, final long nanos, final boolean failed) {
+        final double sample = failed ? (double) nanos * FAILURE_PENALTY : (double) nanos;
+        long prev;
+        long next;
+
+        do {
+            prev = this.averages.get(index);
+
+            final double average = Double.longBitsToDouble(prev);
+            final double updated = Double.isNaN(average)
+                    ? sample
+                    : average + this.alpha * (sample - average);
+
+            next = Double.doubleToRawLongBits(updated);
+        } while (!this.averages.compareAndSet(index, prev, next));
+    }
+
+    /**
+     * Retrieves the moving average latency of a plugin.
+     *
+     * @param index the index of the plugin.
+     * @return the average in nanoseconds or NaN if the plugin was never
+     * sampled.
+     * @since 26.10.18
+     */
+    public double getAverage(final int index) {
+        return Double.longBitsToDouble(this.averages.get(index));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The outcome of calling a single plugin during a broadcast.
+ *
+ * @author zmichaels
+ * @param <Result> the type returned by the call.
+ * @since 26.10.18
+ * @see PluginScanner#broadcast(java.lang.Class, java.util.function.Function, java.util.concurrent.Executor, long, java.util.concurrent.TimeUnit)
+ */
+public final class BroadcastResult<Result> {
+
+    /**
+     * The lookup of the plugin that was called.
+     */
+    public final String lookup;
+    /**
+     * The value returned by the call. This is null if the call failed.
+     */
+    public final Result result;
+    /**
+     * The exception thrown by the call or null if it succeeded. A call that
+     * did not complete in time fails with a TimeoutException.
+     */
+    public final Throwable failure;
+
+    BroadcastResult(final String lookup, final Result result, final Throwable failure) {
+        this.lookup = lookup;
+        this.result = result;
+        this.failure = failure;
+    }
+
+    /**
+     * Checks if the call completed without an exception.
+     *
+     * @return true if the call succeeded.
+     * @since 26.10.18
+     */
+    public boolean isSuccess() {
+        return this.failure == null;
+    }
+
+    /**
+     * Checks if the call did not complete before the timeout.
+     *
+     * @return true if the call timed out.
+     * @since 26.10.18
+     */
+    public boolean isTimedOut() {
+        return this.failure instanceof TimeoutException;
+    }
+
+    /**
+     * Retrieves the value returned by the call.
+     *
+     * @return the result. May return an empty Optional if the call failed or
+     * returned null.
+     * @since 26.10.18
+     */
+    public Optional<Result> getResult() {
+        return Optional.ofNullable(this.result);
+    }
+
+    @Override
+    public String toString() {
+        return this.isSuccess()
+                ? String.format("BroadcastResult %s: %s", this.lookup, this.result)
+                : String.format("BroadcastResult %s failed: %s", this.lookup, this.failure);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the consecutive failures of a plugin. The breaker opens once the
+ * failure threshold of the ExecutionPolicy is reached and rejects calls
+ * until the open duration has passed. A single trial call is then let
+ * through; its outcome either closes the breaker or opens it again.
+ *
+ * Every call is made with a Permit, and its outcome is recorded against the
+ * state the breaker was in when the permit was acquired. An outcome that
+ * arrives after the breaker has moved on is ignored, so only the trial call
+ * can close or reopen a half open breaker.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The state of the breaker.
+     *
+     * @since 26.10.18
+     */
+    public enum State {
+        /**
+         * Calls are let through.
+         */
+        CLOSED,
+        /**
+         * Calls are rejected.
+         */
+        OPEN,
+        /**
+         * A single trial call is in progress.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Permission to make a single call. The outcome of the call is recorded
+     * with the permit.
+     *
+     * @since 26.10.18
+     */
+    public static final class Permit {
+
+        private final Status status;
+
+        private Permit(final Status status) {
+            this.status = status;
+        }
+
+        /**
+         * Checks if the permit is for the trial call of a half open breaker.
+         *
+         * @return true if the call is the trial call.
+         * @since 26.10.18
+         */
+        public boolean isTrial() {
+            return this.status.state == State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * The state of the breaker along with the time it opened. Every change
+     * publishes a new Status, so the two are always read together. A closed
+     * Status counts its own failures.
+     */
+    private static final class Status {
+
+        private final State state;
+        private final long openedAt;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        Status(final State state, final long openedAt) {
+            this.state = state;
+            this.openedAt = openedAt;
+        }
+    }
+
+    private final ExecutionPolicy policy;
+    private final AtomicReference<Status> status = new AtomicReference<>(new Status(State.CLOSED, 0L));
+
+    /**
+     * Constructs a new CircuitBreaker.
+     *
+     * @param policy the policy that supplies the thresholds.
+     * @since 26.10.18
+     */
+    public CircuitBreaker(final ExecutionPolicy policy) {
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+    /**
+     * Retrieves the state of the breaker.
+     *
+     * @return the state.
+     * @since 26.10.18
+     */
+    public State getState() {
+        return this.status.get().state;
+    }
+
+    /**
+     * Checks if a call may be made. Once the open duration has passed, the
+     * first caller is allowed a trial call.
+     *
+     * @return the permit for the call. May return an empty Optional if the
+     * call is rejected.
+     * @since 26.10.18
+     */
+    public Optional<Permit> tryAcquire() {
+        final Status current = this.status.get();
+
+        switch (current.state) {
+            case CLOSED:
+                return Optional.of(new Permit(current));
+            case OPEN:
+                if (System.nanoTime() - current.openedAt >= this.policy.getOpenNanos()) {
+                    final Status trial = new Status(State.HALF_OPEN, current.openedAt);
+
+                    if (this.status.compareAndSet(current, trial)) {
+                        return Optional.of(new Permit(trial));
+                    }
+                }
+
+                return Optional.empty();
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /**
+     * Records a call that completed. A call slower than the slow call
+     * threshold is recorded as a failure.
+     *
+     * @param permit the permit of the call.
+     * @param nanos the latency of the call.
+     * @since 26.10.18
+     */
+    public void onSuccess(final Permit permit, final long nanos) {
+        if (nanos > this.policy.getSlowCallNanos()) {
+            this.onFailure(permit);
+        } else if (permit.isTrial()) {
+            this.status.compareAndSet(permit.status, new Status(State.CLOSED, 0L));
+        } else {
+            permit.status.failures.set(0);
+        }
+    }
+
+    /**
+     * Records a call that failed or timed out.
+     *
+     * @param permit the permit of the call.
+     * @since 26.10.18
+     */
+    public void onFailure(final Permit permit) {
+        if (permit.isTrial() || permit.status.failures.incrementAndGet() >= this.policy.getFailureThreshold()) {
+            // fails if the breaker already moved on, so a late failure never delays it
+            this.status.compareAndSet(permit.status, new Status(State.OPEN, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Returns a permit whose call never ran. A trial permit puts the breaker
+     * back in the open state without restarting the open duration, so that
+     * the next caller may make the trial call.
+     *
+     * @param permit the permit of the call.
+     * @since 26.10.18
+     */
+    public void release(final Permit permit) {
+        if (permit.isTrial()) {
+            this.status.compareAndSet(permit.status, new Status(State.OPEN, permit.status.openedAt));
+        }
+    }
+
+    /**
+     * Closes the breaker and clears the failures.
+     *
+     * @since 26.10.18
+     */
+    public void reset() {
+        this.status.set(new Status(State.CLOSED, 0L));
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker: " + this.getState();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A PluginSelector composed of any number of PluginSelectors. Nested
+ * composites are flattened on construction so registering the implementations
+ * is a single pass over the leaf selectors. Duplicate keys are listed once.
+ *
+ * @author zmichaels
+ * @param <Key> the key for the plugin lookup.
+ * @param <Implementation> the base class for the plugins
+ * @since 26.10.18
+ */
+final class CompositePluginSelector<Key, Implementation> implements PluginSelector<Key, Implementation> {
+
+    private final List<PluginSelector<Key, Implementation>> selectors;
+    private final List<Key> keys;
+
+    CompositePluginSelector(final Collection<? extends PluginSelector<Key, Implementation>> children) {
+        final List<PluginSelector<Key, Implementation>> leaves = new ArrayList<>(children.size());
+
+        for (PluginSelector<Key, Implementation> child : children) {
+            if (child instanceof CompositePluginSelector) {
+                leaves.addAll(((CompositePluginSelector<Key, Implementation>) child).selectors);
+            } else {
+                leaves.add(child);
+            }
+        }
+
+        final Set<Key> uniqueKeys = new LinkedHashSet<>();
+
+        for (PluginSelector<Key, Implementation> leaf : leaves) {
+            uniqueKeys.addAll(leaf.getSupported());
+        }
+
+        this.selectors = Collections.unmodifiableList(leaves);
+        this.keys = Collections.unmodifiableList(new ArrayList<>(uniqueKeys));
+    }
+
+    @Override
+    public List<Key> getSupported() {
+        return this.keys;
+    }
+
+    @Override
+    public void registerImplements(final Map<Key, Class<? extends Implementation>> pluginImpl) {
+        for (PluginSelector<Key, Implementation> selector : this.selectors) {
+            selector.registerImplements(pluginImpl);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how a plugin is called. Calls run on a bounded pool of threads (a
+ * bulkhead) and the caller waits no longer than the timeout. A circuit
+ * breaker opens after a number of consecutive failed or slow calls and
+ * rejects calls until the open duration has passed.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ * @see PluginManager#setExecutionPolicy(java.lang.Object, ExecutionPolicy, java.lang.Object)
+ */
+public final class ExecutionPolicy {
+
+    private final int maxConcurrent;
+    private final long timeoutNanos;
+    private volatile int queueCapacity = 0;
+    private volatile int failureThreshold = 5;
+    private volatile long slowCallNanos = Long.MAX_VALUE;
+    private volatile long openNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Constructs a new ExecutionPolicy.
+     *
+     * @param maxConcurrent the maximum number of calls run at once.
+     * @param timeout the time the caller waits for a call.
+     * @param unit the unit of the timeout.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy(final int maxConcurrent, final long timeout, final TimeUnit unit) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("At least one concurrent call is required!");
+        } else if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive!");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the number of calls that may wait for a thread once every thread
+     * of the bulkhead is busy. Further calls are rejected. The default is 0.
+     *
+     * @param queueCapacity the number of waiting calls.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy setQueueCapacity(final int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity cannot be negative!");
+        }
+
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets the number of consecutive failed or slow calls that opens the
+     * circuit breaker. The default is 5.
+     *
+     * @param failureThreshold the number of calls.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy setFailureThreshold(final int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be positive!");
+        }
+
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the latency above which a successful call counts as a failure of
+     * the circuit breaker. By default no call is slow.
+     *
+     * @param threshold the latency.
+     * @param unit the unit of the latency.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy setSlowCallThreshold(final long threshold, final TimeUnit unit) {
+        this.slowCallNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Sets how long the circuit breaker stays open before a trial call is let
+     * through. The default is 30 seconds.
+     *
+     * @param duration the duration.
+     * @param unit the unit of the duration.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy setOpenDuration(final long duration, final TimeUnit unit) {
+        this.openNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Retrieves the maximum number of calls run at once.
+     *
+     * @return the size of the bulkhead.
+     * @since 26.10.18
+     */
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * Retrieves the number of calls that may wait for a thread.
+     *
+     * @return the queue capacity.
+     * @since 26.10.18
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * Retrieves the time the caller waits for a call.
+     *
+     * @return the timeout in nanoseconds.
+     * @since 26.10.18
+     */
+    public long getTimeoutNanos() {
+        return this.timeoutNanos;
+    }
+
+    /**
+     * Retrieves the number of consecutive failed or slow calls that opens the
+     * circuit breaker.
+     *
+     * @return the failure threshold.
+     * @since 26.10.18
+     */
+    public int getFailureThreshold() {
+        return this.failureThreshold;
+    }
+
+    /**
+     * Retrieves the latency above which a call counts as slow.
+     *
+     * @return the latency in nanoseconds.
+     * @since 26.10.18
+     */
+    public long getSlowCallNanos() {
+        return this.slowCallNanos;
+    }
+
+    /**
+     * Retrieves how long the circuit breaker stays open.
+     *
+     * @return the duration in nanoseconds.
+     * @since 26.10.18
+     */
+    public long getOpenNanos() {
+        return this.openNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExecutionPolicy: [maxConcurrent=%d, queueCapacity=%d, timeout=%dns, failureThreshold=%d]",
+                this.maxConcurrent, this.queueCapacity, this.timeoutNanos, this.failureThreshold);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls a plugin under an ExecutionPolicy. Each call runs on the plugin's own
+ * bounded pool of threads and the caller stops waiting once the call has run
+ * for longer than the timeout, so a slow plugin only ties up its own threads.
+ * A queued call may wait for a thread for up to the timeout as well; a call
+ * that never started is not counted as a failure by the circuit breaker.
+ * While the breaker is open, or the bulkhead is full, calls go to the
+ * fallback plugin if there is one and fail with a PluginException otherwise.
+ *
+ * @author zmichaels
+ * @param <PluginType> the type of plugin.
+ * @since 26.10.18
+ * @see PluginManager#getGuardedImplementation(java.lang.Object)
+ */
+public final class GuardedPlugin<PluginType> implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final HotSwapPlugin<PluginType> plugin;
+    private final Optional<HotSwapPlugin<PluginType>> fallback;
+    private final ExecutionPolicy policy;
+    private final CircuitBreaker breaker;
+    private final ThreadPoolExecutor bulkhead;
+
+    /**
+     * Constructs a new GuardedPlugin.
+     *
+     * @param plugin the plugin to call.
+     * @param fallback the plugin called while the breaker is open. May be
+     * null.
+     * @param policy the policy applied to the calls.
+     * @since 26.10.18
+     */
+    public GuardedPlugin(final HotSwapPlugin<PluginType> plugin, final HotSwapPlugin<PluginType> fallback, final ExecutionPolicy policy) {
+        this.plugin = Objects.requireNonNull(plugin);
+        this.fallback = Optional.ofNullable(fallback);
+        this.policy = Objects.requireNonNull(policy);
+        this.breaker = new CircuitBreaker(policy);
+
+        final BlockingQueue<Runnable> queue = (policy.getQueueCapacity() == 0)
+                ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(policy.getQueueCapacity());
+
+        this.bulkhead = new ThreadPoolExecutor(
+                policy.getMaxConcurrent(), policy.getMaxConcurrent(),
+                60L, TimeUnit.SECONDS,
+                queue,
+                task -> {
+                    final Thread thread = new Thread(task, "plugin-bulkhead-" + THREAD_IDS.incrementAndGet());
+
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.bulkhead.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Retrieves the plugin called while the breaker is closed.
+     *
+     * @return the plugin.
+     * @since 26.10.18
+     */
+    public HotSwapPlugin<PluginType> getPlugin() {
+        return this.plugin;
+    }
+
+    /**
+     * Retrieves the plugin called while the breaker is open.
+     *
+     * @return the fallback plugin, if one was set.
+     * @since 26.10.18
+     */
+    public Optional<HotSwapPlugin<PluginType>> getFallback() {
+        return this.fallback;
+    }
+
+    /**
+     * Retrieves the policy applied to the calls.
+     *
+     * @return the policy.
+     * @since 26.10.18
+     */
+    public ExecutionPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Retrieves the circuit breaker of the plugin.
+     *
+     * @return the breaker.
+     * @since 26.10.18
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return this.breaker;
+    }
+
+    /**
+     * Invokes the specified method on the plugin. The fallback plugin is
+     * called on the calling thread.
+     *
+     * @param method the method to invoke
+     * @param params the parameters to pass
+     * @return the result of the operation.
+     * @throws PluginException if the method failed, timed out or was
+     * rejected and no fallback plugin was set.
+     * @since 26.10.18
+     */
+    public Object invoke(final String method, final Object... params) throws PluginException {
+        final Optional<CircuitBreaker.Permit> acquired = this.breaker.tryAcquire();
+
+        if (!acquired.isPresent()) {
+            return this.invokeFallback("Circuit breaker is open for plugin: ", method, params);
+        }
+
+        // a trial call that never ran is released so the breaker is not left half open
+        final CircuitBreaker.Permit permit = acquired.get();
+
+        final long timeout = this.policy.getTimeoutNanos();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicLong startedAt = new AtomicLong();
+        final Future<Object> call;
+
+        try {
+            call = this.bulkhead.submit(() -> {
+                startedAt.set(System.nanoTime());
+                started.countDown();
+
+                return this.plugin.invoke(method, params);
+            });
+        } catch (RejectedExecutionException ex) {
+            this.breaker.release(permit);
+            return this.invokeFallback("Bulkhead is full for plugin: ", method, params);
+        }
+
+        try {
+            // time spent queued is bounded separately and is not a failure of the plugin
+            if (!started.await(timeout, TimeUnit.NANOSECONDS) && call.cancel(false)) {
+                this.breaker.release(permit);
+                return this.invokeFallback("Bulkhead queue timed out for plugin: ", method, params);
+            }
+
+            started.await();
+
+            final long start = startedAt.get();
+            final Object result = call.get(start + timeout - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+            this.breaker.onSuccess(permit, System.nanoTime() - start);
+
+            return result;
+        } catch (TimeoutException ex) {
+            call.cancel(true);
+            this.breaker.onFailure(permit);
+
+            throw new PluginException("Plugin timed out: " + this.plugin.getPluginType() + "." + method, null, false);
+        } catch (ExecutionException ex) {
+            this.breaker.onFailure(permit);
+
+            throw (ex.getCause() instanceof PluginException)
+                    ? (PluginException) ex.getCause()
+                    : new PluginException("Unable to invoke method: " + method, ex.getCause());
+        } catch (InterruptedException ex) {
+            call.cancel(true);
+            this.breaker.release(permit);
+            Thread.currentThread().interrupt();
+
+            throw new PluginException("Interrupted while waiting for plugin!", ex);
+        }
+    }
+
+    private Object invokeFallback(final String reason, final String method, final Object... params) {
+        if (this.fallback.isPresent()) {
+            return this.fallback.get().invoke(method, params);
+        } else {
+            throw new PluginException(reason + this.plugin.getPluginType(), null, false);
+        }
+    }
+
+    /**
+     * Stops the threads of the bulkhead. Calls that are running are
+     * interrupted.
+     *
+     * @since 26.10.18
+     */
+    @Override
+    public void close() {
+        this.bulkhead.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GuardedPlugin %s: %s", this.plugin.getPluginType(), this.breaker.getState());
+    }
+}
@@ -25,17 +25,32 @@
  */
 package com.longlinkislong.plugin;
 
-import java.lang.ref.WeakReference;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A HotSwapPlugin is a type of object designed to wrap a plugin object that can
- * be replaced with a different instance sometime in the future.
+ * be replaced with a different instance sometime in the future. A replaced
+ * instance that implements AutoCloseable is closed once every call that was
+ * already running on it has returned. Singleton instances are shared and are
+ * never closed.
  *
  * @author zmichaels
  * @param <PluginType> the type of plugin.
@@ -43,7 +58,10 @@ import java.util.Objects;
  */
 public class HotSwapPlugin<PluginType> {
 
-    private PluginType currentObj;
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotSwapPlugin.class);
+    private volatile Binding<PluginType> binding;
+    // completes once the last asynchronous swap has migrated; guarded by this
+    private CompletableFuture<Void> migration = CompletableFuture.completedFuture(null);
 
     /**
      * Returns the Type Name of the current plugin.
@@ -52,10 +70,16 @@ public class HotSwapPlugin<PluginType> {
      * @since 15.07.28
      */
     public String getPluginType() {
-        return this.currentObj.getClass().getTypeName();
+        return this.current().getClass().getTypeName();
     }
 
-    private final Map<String, MethodPlugin> methods = new HashMap<>();
+    PluginType current() {
+        return this.binding.get().plugin;
+    }
+
+    private volatile PluginInterceptor[] interceptors = new PluginInterceptor[0];
+    private volatile PluginTracer tracer = null;
+    private volatile PluginCanary<PluginType> canary = null;
 
     /**
      * Constructs a HotSwapPlugin for the specified type.
@@ -64,82 +88,526 @@ public class HotSwapPlugin<PluginType> {
      * @since 15.07.28
      */
     public HotSwapPlugin(final PluginType initial) {
-        this.currentObj = Objects.requireNonNull(initial);
+        this.binding = new Binding<>(new Instance<>(Objects.requireNonNull(initial)));
+    }
+
+    /**
+     * Adds an interceptor to every method called through the HotSwapPlugin.
+     * Interceptors added first wrap the interceptors added after them. The
+     * methods are rebuilt with the interceptor on their next call.
+     *
+     * @param interceptor the interceptor.
+     * @since 26.10.18
+     */
+    public synchronized void addInterceptor(final PluginInterceptor interceptor) {
+        final PluginInterceptor[] current = this.interceptors;
+        final PluginInterceptor[] updated = Arrays.copyOf(current, current.length + 1);
+
+        updated[current.length] = Objects.requireNonNull(interceptor);
+
+        this.interceptors = updated;
+    }
+
+    /**
+     * Removes an interceptor.
+     *
+     * @param interceptor the interceptor.
+     * @return true if the interceptor was removed.
+     * @since 26.10.18
+     */
+    public synchronized boolean removeInterceptor(final PluginInterceptor interceptor) {
+        final List<PluginInterceptor> updated = new ArrayList<>(Arrays.asList(this.interceptors));
+
+        if (updated.remove(interceptor)) {
+            this.interceptors = updated.toArray(new PluginInterceptor[0]);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the tracer that samples calls made through the HotSwapPlugin.
+     * Supplying null disables tracing.
+     *
+     * @param tracer the tracer or null.
+     * @since 26.10.18
+     */
+    public void setTracer(final PluginTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Starts a trial of a candidate plugin. Calls made through invoke are
+     * shared with the candidate until the trial is promoted or rolled back.
+     * Only one trial may run at a time.
+     *
+     * @param canary the trial.
+     * @throws PluginException if a trial is already running or the canary was
+     * already started.
+     * @since 26.10.18
+     */
+    public synchronized void startCanary(final PluginCanary<PluginType> canary) {
+        if (this.canary != null) {
+            throw new PluginException("A canary is already running!");
+        }
+
+        canary.attach(this);
+
+        this.canary = canary;
+    }
+
+    /**
+     * Retrieves the running trial.
+     *
+     * @return the trial. May return an empty Optional if no trial is running.
+     * @since 26.10.18
+     */
+    public Optional<PluginCanary<PluginType>> getCanary() {
+        return Optional.ofNullable(this.canary);
+    }
+
+    synchronized void endCanary(final PluginCanary<PluginType> canary) {
+        if (this.canary == canary) {
+            this.canary = null;
+        }
     }
 
     /**
      * Swaps the plugin object for a new plugin object.
      *
+     * Waits for a running asynchronous migration to finish first.
+     *
      * @param newPlugin the new plugin.
+     * @throws PluginException if an uncommitted swap transaction has staged
+     * a plugin.
      * @since 15.07.28
      */
-    public synchronized void swapPlugin(final PluginType newPlugin) {
-        final PluginType oldPlugin = this.currentObj;
+    public void swapPlugin(final PluginType newPlugin) {
+        Objects.requireNonNull(newPlugin);
+        this.whenMigrated(() -> this.swapNow(newPlugin));
+    }
+
+    private void swapNow(final PluginType newPlugin) {
+        this.checkNotStaged();
 
-        this.currentObj = Objects.requireNonNull(newPlugin);
+        final Instance<PluginType> oldInstance = this.binding.get();
+
+        // upgrade before publishing so callers never see a partial upgrade
+        upgrade(newPlugin, oldInstance.plugin);
+
+        this.binding = new Binding<>(new Instance<>(newPlugin));
 
         try {
-            for (Method method : newPlugin.getClass().getMethods()) {
-                if (method.getName().equals("upgrade")) {
-                    final Class<?>[] params = method.getParameterTypes();
-
-                    if (params.length == 0) {
-                        method.invoke(newPlugin);
-                        return;
-                    } else {
-                        final Class<?> param = method.getParameterTypes()[0];
-                        
-                        // scan for suitable upgrade function based on interfaces
-                        for(Class<?> test : oldPlugin.getClass().getInterfaces()) {
-                            // try the parent of each interface                            
-                            while(test != null) {
-                                if(param == test) {
-                                    method.invoke(newPlugin, oldPlugin);
-                                    return;
-                                }
-                                test = test.getSuperclass();
-                            }
-                        }
+            if (newPlugin instanceof IncrementalUpgrade) {
+                migrate(newPlugin, oldInstance.plugin);
+            }
+        } finally {
+            oldInstance.retire(newPlugin);
+        }
+    }
+
+    /**
+     * Swaps the plugin object for a new plugin object without waiting for an
+     * incremental migration. The upgrade function is called and the new
+     * plugin is used immediately. If the new plugin implements
+     * IncrementalUpgrade, the remaining state is migrated in chunks on the
+     * executor while the new plugin serves calls. The old plugin is retired
+     * once the migration finishes. Swaps made while a migration is running
+     * start after it finishes, so no migrated state is lost.
+     *
+     * @param newPlugin the new plugin.
+     * @param executor the executor to migrate on.
+     * @return a future that completes once the migration finishes.
+     * @throws PluginException if an uncommitted swap transaction has staged
+     * a plugin.
+     * @since 26.10.18
+     * @see IncrementalUpgrade
+     */
+    public CompletableFuture<Void> swapPluginAsync(final PluginType newPlugin, final Executor executor) {
+        Objects.requireNonNull(newPlugin);
+        Objects.requireNonNull(executor);
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CompletableFuture<Void> previous;
+
+        synchronized (this) {
+            this.checkNotStaged();
+            previous = this.migration;
+            this.migration = done;
+        }
+
+        if (previous.isDone()) {
+            this.startSwap(newPlugin, executor, done);
+        } else {
+            // the next swap must upgrade from the fully migrated plugin
+            previous.whenComplete((ignored, err) -> this.startSwap(newPlugin, executor, done));
+        }
+
+        return done;
+    }
+
+    private void startSwap(final PluginType newPlugin, final Executor executor, final CompletableFuture<Void> done) {
+        final Instance<PluginType> oldInstance;
+
+        try {
+            synchronized (this) {
+                this.checkNotStaged();
+                oldInstance = this.binding.get();
+
+                upgrade(newPlugin, oldInstance.plugin);
+
+                this.binding = new Binding<>(new Instance<>(newPlugin));
+            }
+        } catch (RuntimeException ex) {
+            done.completeExceptionally(ex);
+            throw ex;
+        }
+
+        if (!(newPlugin instanceof IncrementalUpgrade)) {
+            oldInstance.retire(newPlugin);
+            done.complete(null);
+            return;
+        }
+
+        final CompletableFuture<Void> migrated = new CompletableFuture<>();
+
+        try {
+            migrateAsync(newPlugin, oldInstance.plugin, executor, migrated);
+        } catch (RuntimeException ex) {
+            migrated.completeExceptionally(ex);
+        }
+
+        migrated.whenComplete((ignored, err) -> {
+            oldInstance.retire(newPlugin);
+
+            if (err == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(err);
+            }
+        });
+    }
+
+    /**
+     * Runs a swap under the lock once no asynchronous migration is running.
+     * The migration is awaited outside of the lock since the swaps queued
+     * behind it need the lock to start.
+     *
+     * @param swap the swap to run.
+     */
+    private void whenMigrated(final Runnable swap) {
+        while (true) {
+            final CompletableFuture<Void> pending;
+
+            synchronized (this) {
+                pending = this.migration;
+
+                if (pending.isDone()) {
+                    swap.run();
+                    return;
+                }
+            }
+
+            try {
+                pending.get();
+            } catch (ExecutionException ex) {
+                // the failure was reported to the caller of the failed swap
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new PluginException("Interrupted while waiting for a plugin migration!", ex);
+            }
+        }
+    }
+
+    /**
+     * Stages a new plugin object. The staged plugin is upgraded immediately
+     * but is not used until the transaction is committed.
+     *
+     * @param newPlugin the new plugin.
+     * @param transaction the transaction that publishes the plugin.
+     */
+    void stagePlugin(final PluginType newPlugin, final SwapTransaction<?, ?> transaction) {
+        Objects.requireNonNull(newPlugin);
+        this.whenMigrated(() -> this.stageNow(newPlugin, transaction));
+    }
+
+    private void stageNow(final PluginType newPlugin, final SwapTransaction<?, ?> transaction) {
+        this.checkNotStaged();
+
+        final Instance<PluginType> oldInstance = this.binding.get();
+
+        upgrade(newPlugin, oldInstance.plugin);
+
+        // the staged plugin is not used yet, so it is migrated in full
+        if (newPlugin instanceof IncrementalUpgrade) {
+            migrate(newPlugin, oldInstance.plugin);
+        }
+
+        this.binding = new Binding<>(new Instance<>(newPlugin), oldInstance, transaction);
+    }
+
+    private void checkNotStaged() {
+        if (this.binding.transaction != null) {
+            throw new PluginException("Plugin is staged by an uncommitted swap transaction!");
+        }
+    }
+
+    /**
+     * Replaces the binding staged by the transaction with either the staged
+     * plugin or the previous plugin depending on if the transaction was
+     * committed. This removes the transaction check from future calls and
+     * retires the unused plugin.
+     *
+     * @param transaction the completed transaction.
+     */
+    synchronized void settlePlugin(final SwapTransaction<?, ?> transaction) {
+        final Binding<PluginType> staged = this.binding;
+
+        if (staged.transaction == transaction) {
+            final Instance<PluginType> kept = staged.get();
+            final Instance<PluginType> dropped = (kept == staged.instance) ? staged.previous : staged.instance;
+
+            this.binding = new Binding<>(kept);
+
+            dropped.retire(kept.plugin);
+        }
+    }
+
+    /**
+     * Replaces the plugin object with the object of another HotSwapPlugin.
+     * The upgrade function is not called since the object has already served
+     * calls with its own state.
+     *
+     * @param source the HotSwapPlugin whose object is used.
+     */
+    void adopt(final HotSwapPlugin<PluginType> source) {
+        this.whenMigrated(() -> this.adoptNow(source));
+    }
+
+    private void adoptNow(final HotSwapPlugin<PluginType> source) {
+        this.checkNotStaged();
+
+        final Instance<PluginType> oldInstance = this.binding.get();
+        final Instance<PluginType> newInstance = source.binding.get();
+
+        this.binding = new Binding<>(newInstance);
+
+        oldInstance.retire(newInstance.plugin);
+    }
+
+    /**
+     * Retires the current plugin object without replacing it. The object is
+     * closed once its running calls exit, unless it is the kept object or a
+     * singleton. Calls made afterwards throw a RetiredException.
+     *
+     * @param kept an object that stays in use elsewhere.
+     */
+    void retire(final Object kept) {
+        this.binding.get().retire(kept);
+    }
+
+    private static final MethodType UPGRADE_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * Cache of upgrade functions indexed by the new class and then by the old
+     * class. Pairs without an upgrade function are cached as an empty
+     * Optional so that the methods are only scanned once per pair.
+     */
+    private static final ClassValue<ClassValue<Optional<MethodHandle>>> UPGRADES = new ClassValue<ClassValue<Optional<MethodHandle>>>() {
+        @Override
+        protected ClassValue<Optional<MethodHandle>> computeValue(final Class<?> newType) {
+            return new ClassValue<Optional<MethodHandle>>() {
+                @Override
+                protected Optional<MethodHandle> computeValue(final Class<?> oldType) {
+                    return findUpgrade(newType, oldType);
+                }
+            };
+        }
+    };
+
+    private static Optional<Method> findUpgradeMethod(final Class<?> newType, final Class<?> oldType) {
+        for (Method method : newType.getMethods()) {
+            if (method.getName().equals("upgrade")) {
+                final Class<?>[] params = method.getParameterTypes();
+
+                if (params.length == 0) {
+                    return Optional.of(method);
+                } else {
+                    final Class<?> param = method.getParameterTypes()[0];
                         
-                        // scane for suitable upgrade function based on 
-                        Class<?> test = oldPlugin.getClass();                                                
-                        while (test != null) {                                                        
-                            if (param == test) {                                
-                                method.invoke(newPlugin, oldPlugin);
-                                return;
+                    // scan for suitable upgrade function based on interfaces
+                    for(Class<?> test : oldType.getInterfaces()) {
+                        // try the parent of each interface                            
+                        while(test != null) {
+                            if(param == test) {
+                                return Optional.of(method);
                             }
                             test = test.getSuperclass();
-                        }                                                
+                        }
                     }
+                        
+                    // scane for suitable upgrade function based on 
+                    Class<?> test = oldType;                                                
+                    while (test != null) {                                                        
+                        if (param == test) {                                
+                            return Optional.of(method);
+                        }
+                        test = test.getSuperclass();
+                    }                                                
                 }
             }
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            throw new PluginException("Unable to call upgrade function!", ex);
         }
+
+        return Optional.empty();
     }
 
-    private synchronized MethodPlugin fetchMethod(final String name, final Class<?>[] pTypes) {
-        final String desc = this.getDescriptor(name, pTypes);
+    private static Optional<MethodHandle> findUpgrade(final Class<?> newType, final Class<?> oldType) {
+        return findUpgradeMethod(newType, oldType)
+                .map(HotSwapPlugin::unreflectUpgrade)
+                .map(handle -> (handle.type().parameterCount() == 1)
+                        ? MethodHandles.dropArguments(handle, 1, Object.class)
+                        : handle)
+                .map(handle -> handle.asType(UPGRADE_TYPE));
+    }
 
+    private static MethodHandle unreflectUpgrade(final Method method) {
         try {
-            if (this.methods.containsKey(desc)) {
-                final MethodPlugin method = this.methods.get(desc);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException ex) {
+            // skipping the upgrade would silently drop the plugin's state
+            throw new PluginException("Unable to call upgrade function!", ex);
+        }
+    }
 
-                return method.obj.get() == this.currentObj
-                        ? method
-                        : new MethodPlugin(this.currentObj, name, pTypes);
-            } else {
-                final MethodPlugin method = new MethodPlugin(this.currentObj, name, pTypes);
+    private static void upgrade(final Object newPlugin, final Object oldPlugin) {
+        final Optional<MethodHandle> upgrade = UPGRADES.get(newPlugin.getClass()).get(oldPlugin.getClass());
+
+        if (upgrade.isPresent()) {
+            try {
+                upgrade.get().invokeExact(newPlugin, oldPlugin);
+            } catch (Error err) {
+                throw err;
+            } catch (Throwable ex) {
+                throw new PluginException("Unable to call upgrade function!", ex);
+            }
+        }
+    }
 
-                this.methods.put(desc, method);
+    @SuppressWarnings("unchecked")
+    private static void migrate(final Object newPlugin, final Object oldPlugin) {
+        final IncrementalUpgrade<Object> migration = (IncrementalUpgrade<Object>) newPlugin;
 
-                return method;
+        while (migration.migrate(oldPlugin)) {
+            // keep migrating until the old plugin is drained
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void migrateAsync(
+            final Object newPlugin,
+            final Object oldPlugin,
+            final Executor executor,
+            final CompletableFuture<Void> done) {
+
+        final IncrementalUpgrade<Object> migration = (IncrementalUpgrade<Object>) newPlugin;
+
+        // each chunk is a separate task so that the executor is not held
+        executor.execute(() -> {
+            try {
+                if (migration.migrate(oldPlugin)) {
+                    migrateAsync(newPlugin, oldPlugin, executor, done);
+                } else {
+                    done.complete(null);
+                }
+            } catch (Throwable ex) {
+                done.completeExceptionally(ex);
             }
-        } catch (NoSuchMethodException ex) {
+        });
+    }
+
+    /**
+     * Acquires the current instance. The instance will not be closed until
+     * it is released, even if it is swapped out in the meantime.
+     *
+     * @return the current instance.
+     * @throws RetiredException if the current instance was retired without
+     * being replaced.
+     */
+    private Instance<PluginType> acquire() {
+        while (true) {
+            final Instance<PluginType> instance = this.binding.get();
+
+            instance.enter();
+
+            // an instance retired before the call was counted is not used
+            if (!instance.retired) {
+                return instance;
+            }
+
+            instance.exit();
+
+            // a retired instance that is still bound will never be replaced
+            if (this.binding.get() == instance) {
+                throw new RetiredException();
+            }
+        }
+    }
+
+    private MethodPlugin fetchMethod(final Instance<PluginType> instance, final String name, final Class<?>[] pTypes) {
+        final String desc = getDescriptor(name, pTypes);
+        final PluginInterceptor[] chain = this.interceptors;
+        final MethodPlugin cached = instance.methods.get(desc);
+
+        if (cached != null && cached.interceptors == chain) {
+            return cached;
+        }
+
+        try {
+            final Method target = instance.plugin.getClass().getDeclaredMethod(name, pTypes);
+            final MethodPlugin method = new MethodPlugin(instance.plugin, target, desc, chain);
+
+            instance.methods.put(desc, method);
+
+            return method;
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
             throw new PluginException("Unable to fetch method: " + desc, ex);
         }
     }
 
+    private Optional<MethodPlugin> fetchBatchMethod(final Instance<PluginType> instance, final String name) {
+        final PluginInterceptor[] chain = this.interceptors;
+        final Optional<MethodPlugin> cached = instance.batches.get(name);
+
+        if (cached != null && (!cached.isPresent() || cached.get().interceptors == chain)) {
+            return cached;
+        }
+
+        Optional<MethodPlugin> batchMethod = Optional.empty();
+
+        for (Method method : instance.plugin.getClass().getMethods()) {
+            final Plugin.Batch batch = method.getAnnotation(Plugin.Batch.class);
+
+            if (batch != null && batch.value().equals(name)
+                    && method.getParameterCount() == 1
+                    && method.getParameterTypes()[0].isAssignableFrom(List.class)) {
+
+                final String desc = getDescriptor(method.getName(), method.getParameterTypes());
+
+                try {
+                    batchMethod = Optional.of(new MethodPlugin(instance.plugin, method, desc, chain));
+                    break;
+                } catch (IllegalAccessException ex) {
+                    throw new PluginException("Unable to fetch method: " + desc, ex);
+                }
+            }
+        }
+
+        instance.batches.put(name, batchMethod);
+
+        return batchMethod;
+    }
+
     /**
      * Invokes the specified method.
      *
@@ -150,21 +618,107 @@ public class HotSwapPlugin<PluginType> {
      * @since 15.07.28
      */
     public Object invoke(final String method, final Object... params) throws PluginException {
+        final PluginCanary<PluginType> trial = this.canary;
+
+        return (trial == null)
+                ? this.invokeCurrent(method, params)
+                : trial.invoke(this, method, params);
+    }
+
+    /**
+     * Invokes the specified method on the current plugin, bypassing any
+     * running trial.
+     *
+     * @param method the method to invoke
+     * @param params the parameters to pass
+     * @return the result of the operation.
+     */
+    Object invokeCurrent(final String method, final Object[] params) {
         final Class<?>[] pTypes = Arrays
                 .stream(params)
                 .map(Object::getClass)
                 .toArray(Class<?>[]::new);
 
-        final MethodPlugin pMethod = this.fetchMethod(method, pTypes);
+        final Instance<PluginType> instance = this.acquire();
 
         try {
-            return pMethod.invoke(params);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            throw new PluginException("Unable to invoke method: " + pMethod.descriptor, ex);
+            final MethodPlugin pMethod = this.fetchMethod(instance, method, pTypes);
+            final PluginTracer sampler = this.tracer;
+
+            if (sampler == null || !sampler.sample()) {
+                return pMethod.invoke(params);
+            }
+
+            final long start = System.nanoTime();
+            Throwable failure = null;
+
+            try {
+                return pMethod.invoke(params);
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+                throw ex;
+            } finally {
+                sampler.record(method, instance.plugin.getClass(), System.nanoTime() - start, failure, params);
+            }
+        } finally {
+            instance.exit();
         }
     }
 
-    private String getDescriptor(final String name, final Class<?>[] pTypes) {
+    /**
+     * Invokes the specified method once for each set of parameters. The
+     * method is resolved from the first set of parameters and the current
+     * plugin is used for the whole batch, even if it is swapped out while the
+     * batch runs. If the plugin has a method annotated with Plugin.Batch for
+     * the method, the whole batch is passed to it instead.
+     *
+     * @param method the method to invoke
+     * @param params the parameters of each call
+     * @return the result of each call in the same order as the parameters.
+     * @throws PluginException if the method could not be executed.
+     * @since 26.10.18
+     * @see Plugin.Batch
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> invokeBatch(final String method, final List<Object[]> params) throws PluginException {
+        if (params.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Instance<PluginType> instance = this.acquire();
+
+        try {
+            final Optional<MethodPlugin> batchMethod = this.fetchBatchMethod(instance, method);
+
+            if (batchMethod.isPresent()) {
+                final Object results = batchMethod.get().invoke(new Object[]{params});
+
+                if (!(results instanceof List) || ((List<?>) results).size() != params.size()) {
+                    throw new PluginException("Batch method did not return a result for each call: " + batchMethod.get().descriptor);
+                }
+
+                return Collections.unmodifiableList((List<Object>) results);
+            }
+
+            final Class<?>[] pTypes = Arrays
+                    .stream(params.get(0))
+                    .map(Object::getClass)
+                    .toArray(Class<?>[]::new);
+
+            final MethodPlugin pMethod = this.fetchMethod(instance, method, pTypes);
+            final Object[] results = new Object[params.size()];
+
+            for (int i = 0; i < results.length; i++) {
+                results[i] = pMethod.invoke(params.get(i));
+            }
+
+            return Collections.unmodifiableList(Arrays.asList(results));
+        } finally {
+            instance.exit();
+        }
+    }
+
+    private static String getDescriptor(final String name, final Class<?>[] pTypes) {
         final StringBuilder desc = new StringBuilder();
 
         desc.append(name);
@@ -182,20 +736,155 @@ public class HotSwapPlugin<PluginType> {
         return desc.toString();
     }
 
-    private class MethodPlugin {
+    /**
+     * Thrown when a call is made on a HotSwapPlugin whose plugin was retired
+     * without a replacement. The call did not reach the plugin.
+     */
+    @SuppressWarnings("serial")
+    static final class RetiredException extends PluginException {
+
+        RetiredException() {
+            super("Plugin has been retired!", null, false);
+        }
+    }
+
+    private static final class Binding<PluginType> {
+
+        private final Instance<PluginType> instance;
+        private final Instance<PluginType> previous;
+        private final SwapTransaction<?, ?> transaction;
+
+        Binding(final Instance<PluginType> instance) {
+            this(instance, null, null);
+        }
+
+        Binding(final Instance<PluginType> instance, final Instance<PluginType> previous, final SwapTransaction<?, ?> transaction) {
+            this.instance = instance;
+            this.previous = previous;
+            this.transaction = transaction;
+        }
+
+        Instance<PluginType> get() {
+            return (this.transaction == null || this.transaction.isCommitted())
+                    ? this.instance
+                    : this.previous;
+        }
+    }
+
+    /**
+     * A plugin object along with a count of the calls running on it. The
+     * count is striped by thread so that calls do not contend with each other.
+     * Each thread always uses the same stripe, so a stripe never holds the
+     * exit of a call without also holding its entry.
+     */
+    private static final class Instance<PluginType> {
 
-        private final WeakReference<PluginType> obj;
-        private final Method method;
+        private static final int STRIPES = 16;
+        // spaces the stripes a cache line apart
+        private static final int PADDING = 8;
+
+        private final PluginType plugin;
+        private final Map<String, MethodPlugin> methods = new ConcurrentHashMap<>();
+        private final Map<String, Optional<MethodPlugin>> batches = new ConcurrentHashMap<>();
+        private final AtomicLongArray calls = new AtomicLongArray(STRIPES * PADDING);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean retired = false;
+
+        Instance(final PluginType plugin) {
+            this.plugin = plugin;
+        }
+
+        private static int stripe() {
+            return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+        }
+
+        void enter() {
+            this.calls.incrementAndGet(stripe());
+        }
+
+        void exit() {
+            this.calls.decrementAndGet(stripe());
+
+            if (this.retired) {
+                this.tryClose();
+            }
+        }
+
+        /**
+         * Marks the instance as replaced. The instance is closed once the
+         * last running call exits unless the replacement is the same object
+         * or the instance is a singleton.
+         *
+         * @param replacement the object replacing this instance.
+         */
+        void retire(final Object replacement) {
+            if (replacement == this.plugin || PluginManager.isSingleton(this.plugin.getClass())) {
+                this.closed.set(true);
+            }
+
+            this.retired = true;
+            this.tryClose();
+        }
+
+        private void tryClose() {
+            for (int i = 0; i < STRIPES; i++) {
+                if (this.calls.get(i * PADDING) != 0) {
+                    return;
+                }
+            }
+
+            if (this.plugin instanceof AutoCloseable && this.closed.compareAndSet(false, true)) {
+                try {
+                    ((AutoCloseable) this.plugin).close();
+                } catch (Exception ex) {
+                    LOGGER.error("Unable to close plugin: {}", this.plugin.getClass().getTypeName());
+                    LOGGER.debug(ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * A method bound to a plugin object with the interceptors composed around
+     * it. The handle is spread over an Object array so every call is a single
+     * exact invocation.
+     */
+    private static final class MethodPlugin {
+
+        private final PluginInterceptor[] interceptors;
+        private final MethodHandle handle;
         private final String descriptor;
 
-        MethodPlugin(final PluginType obj, String name, Class<?>[] pTypes) throws NoSuchMethodException {
-            this.obj = new WeakReference(obj);
-            this.method = obj.getClass().getDeclaredMethod(name, pTypes);
-            this.descriptor = getDescriptor(name, pTypes);
+        MethodPlugin(final Object plugin, final Method method, final String descriptor, final PluginInterceptor[] interceptors)
+                throws IllegalAccessException {
+
+            final int pCount = method.getParameterCount();
+            final MethodHandle target = MethodHandles.lookup().unreflect(method).bindTo(plugin);
+            MethodHandle chain = target;
+
+            for (int i = interceptors.length - 1; i >= 0; i--) {
+                chain = interceptors[i].intercept(method, chain);
+
+                if (!chain.type().equals(target.type())) {
+                    throw new PluginException("Interceptor changed the type of method: " + method);
+                }
+            }
+
+            this.interceptors = interceptors;
+            this.handle = chain
+                    .asType(MethodType.genericMethodType(pCount))
+                    .asSpreader(Object[].class, pCount);
+            this.descriptor = descriptor;
         }
 
-        Object invoke(Object[] params) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-            return this.method.invoke(this.obj.get(), params);
+        Object invoke(final Object[] params) {
+            try {
+                return (Object) this.handle.invokeExact(params);
+            } catch (Error err) {
+                throw err;
+            } catch (Throwable ex) {
+                throw new PluginException("Unable to invoke method: " + this.descriptor, ex);
+            }
         }
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+/**
+ * A plugin that moves the state of the plugin it replaces in chunks. The
+ * upgrade function is called first and should only transfer what is needed
+ * to start serving calls. migrate is then called repeatedly until it returns
+ * false. When swapped with HotSwapPlugin.swapPluginAsync, the new plugin
+ * already serves calls while it is migrating, so it must tolerate reads of
+ * state that has not been migrated yet.
+ *
+ * @author zmichaels
+ * @param <OldType> the type of the plugin being replaced.
+ * @since 26.10.18
+ * @see HotSwapPlugin#swapPluginAsync(java.lang.Object, java.util.concurrent.Executor)
+ */
+@FunctionalInterface
+public interface IncrementalUpgrade<OldType> {
+
+    /**
+     * Migrates the next chunk of state from the old plugin.
+     *
+     * @param oldPlugin the plugin being replaced.
+     * @return true if there is more state to migrate.
+     * @since 26.10.18
+     */
+    boolean migrate(OldType oldPlugin);
+}
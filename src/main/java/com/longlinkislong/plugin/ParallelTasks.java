@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Helper for running one task per key on an Executor and collecting the
+ * failures.
+ *
+ * @author zmichaels
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Runs the action once for every key on the executor. The listener is
+     * called as each key completes with either null or the failure.
+     *
+     * @param <Key> the key type.
+     * @param keys the keys to process.
+     * @param action the action to run for each key.
+     * @param executor the executor to run the actions on.
+     * @param listener the progress listener.
+     * @return a future that completes with the failures once every key has
+     * completed. The map is empty if every key succeeded.
+     */
+    static <Key> CompletableFuture<Map<Key, Throwable>> forEach(
+            final Collection<? extends Key> keys,
+            final Consumer<? super Key> action,
+            final Executor executor,
+            final BiConsumer<? super Key, ? super Throwable> listener) {
+
+        final Map<Key, Throwable> failures = new ConcurrentHashMap<>();
+        final CompletableFuture<?>[] tasks = keys.stream()
+                .map(key -> CompletableFuture.runAsync(() -> action.accept(key), executor)
+                        .whenComplete((ignored, err) -> {
+                            final Throwable cause = unwrap(err);
+
+                            if (cause != null) {
+                                failures.put(key, cause);
+                            }
+
+                            listener.accept(key, cause);
+                        }))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(tasks)
+                .handle((ignored, err) -> Collections.unmodifiableMap(failures));
+    }
+
+    /**
+     * Calls every plugin on the executor. A call that does not complete
+     * within the timeout of starting is reported with a TimeoutException; the
+     * call itself is not interrupted.
+     *
+     * @param <Result> the type returned by the call.
+     * @param lookups the lookups of the plugins to call.
+     * @param call the call to make for each lookup.
+     * @param executor the executor to run the calls on.
+     * @param timeout the time each call is given to complete.
+     * @param unit the unit of the timeout.
+     * @return a future that completes with the result of each call in the
+     * order the calls completed.
+     */
+    static <Result> CompletableFuture<List<BroadcastResult<Result>>> broadcast(
+            final Collection<String> lookups,
+            final Function<String, ? extends Result> call,
+            final Executor executor,
+            final long timeout,
+            final TimeUnit unit) {
+
+        final Queue<BroadcastResult<Result>> results = new ConcurrentLinkedQueue<>();
+        final CompletableFuture<?>[] tasks = lookups.stream()
+                .map(lookup -> {
+                    final CompletableFuture<Result> task = new CompletableFuture<>();
+
+                    try {
+                        executor.execute(() -> {
+                            // the timer starts with the call so time spent queued is not counted
+                            final ScheduledFuture<?> timer = Timeouts.SCHEDULER.schedule(
+                                    () -> task.completeExceptionally(new TimeoutException("Plugin timed out: " + lookup)),
+                                    timeout, unit);
+
+                            try {
+                                task.complete(call.apply(lookup));
+                            } catch (Throwable ex) {
+                                task.completeExceptionally(ex);
+                            } finally {
+                                timer.cancel(false);
+                            }
+                        });
+                    } catch (RejectedExecutionException ex) {
+                        task.completeExceptionally(ex);
+                    }
+
+                    return task.whenComplete((result, err) -> results.add(new BroadcastResult<>(lookup, result, unwrap(err))));
+                })
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(tasks)
+                .handle((ignored, err) -> Collections.unmodifiableList(new ArrayList<>(results)));
+    }
+
+    /**
+     * Retrieves the cause of a CompletionException.
+     *
+     * @param err the exception. May be null.
+     * @return the cause or the exception itself.
+     */
+    static Throwable unwrap(final Throwable err) {
+        return (err instanceof CompletionException && err.getCause() != null)
+                ? err.getCause()
+                : err;
+    }
+
+    /**
+     * Holder of the timer thread. The thread is only started once a timeout
+     * is needed.
+     */
+    private static final class Timeouts {
+
+        static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, task -> {
+            final Thread thread = new Thread(task, "plugin-timeouts");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
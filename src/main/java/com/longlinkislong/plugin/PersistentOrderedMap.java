@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable, insertion-ordered map backed by a hash array mapped trie.
+ * Every modification returns a new map that shares all unchanged nodes with
+ * the previous version, so put and remove are O(log n) and old versions stay
+ * valid. Replacing the value of an existing key keeps its original position.
+ *
+ * @author zmichaels
+ * @param <K> the key type.
+ * @param <V> the value type.
+ * @since 26.10.18
+ */
+final class PersistentOrderedMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object[] NO_SLOTS = new Object[0];
+    private static final PersistentOrderedMap<?, ?> EMPTY = new PersistentOrderedMap<>(null, 0, 0L);
+
+    private final Node root;
+    private final int size;
+    private final long nextOrder;
+    // built on first use and shared by every reader of this version
+    private volatile List<Entry<K, V>> ordered;
+    private volatile List<K> keys;
+
+    private PersistentOrderedMap(final Node root, final int size, final long nextOrder) {
+        this.root = root;
+        this.size = size;
+        this.nextOrder = nextOrder;
+    }
+
+    /**
+     * Retrieves the empty map.
+     *
+     * @param <K> the key type.
+     * @param <V> the value type.
+     * @return the empty map.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentOrderedMap<K, V> empty() {
+        return (PersistentOrderedMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Retrieves the number of entries.
+     *
+     * @return the size.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the map contains the key.
+     *
+     * @param key the key.
+     * @return true if the key is mapped.
+     */
+    boolean containsKey(final Object key) {
+        return this.find(key) != null;
+    }
+
+    /**
+     * Retrieves the value mapped to the key.
+     *
+     * @param key the key.
+     * @return the value or null if the key is not mapped.
+     */
+    V get(final Object key) {
+        final Entry<K, V> entry = this.find(key);
+
+        return (entry == null) ? null : entry.value;
+    }
+
+    /**
+     * Creates a new map with the key mapped to the value.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the new map or this map if the key is already mapped to the
+     * value.
+     */
+    PersistentOrderedMap<K, V> put(final K key, final V value) {
+        final int hash = hash(key);
+        final Entry<K, V> existing = this.find(key);
+
+        if (existing != null) {
+            if (existing.value == value) {
+                return this;
+            }
+
+            final Entry<K, V> entry = new Entry<>(key, value, hash, existing.order);
+
+            return new PersistentOrderedMap<>(this.root.put(entry, 0), this.size, this.nextOrder);
+        }
+
+        final Entry<K, V> entry = new Entry<>(key, value, hash, this.nextOrder);
+        final Node base = (this.root == null) ? new BitmapNode(0, NO_SLOTS) : this.root;
+
+        return new PersistentOrderedMap<>(base.put(entry, 0), this.size + 1, this.nextOrder + 1);
+    }
+
+    /**
+     * Creates a new map without the key.
+     *
+     * @param key the key.
+     * @return the new map or this map if the key was not mapped.
+     */
+    PersistentOrderedMap<K, V> remove(final Object key) {
+        if (this.root == null) {
+            return this;
+        }
+
+        final Node updated = this.root.remove(hash(key), key, 0);
+
+        if (updated == this.root) {
+            return this;
+        } else if (updated == null) {
+            return empty();
+        } else {
+            return new PersistentOrderedMap<>(updated, this.size - 1, this.nextOrder);
+        }
+    }
+
+    /**
+     * Retrieves the keys in insertion order. The list is built once per
+     * version of the map and then shared.
+     *
+     * @return unmodifiable list of keys.
+     */
+    List<K> keys() {
+        List<K> out = this.keys;
+
+        if (out == null) {
+            final List<Entry<K, V>> entries = this.entries();
+            final List<K> collected = new ArrayList<>(entries.size());
+
+            for (Entry<K, V> entry : entries) {
+                collected.add(entry.key);
+            }
+
+            out = Collections.unmodifiableList(collected);
+            this.keys = out;
+        }
+
+        return out;
+    }
+
+    /**
+     * Retrieves the value of the first key in insertion order.
+     *
+     * @return the value or null if the map is empty.
+     */
+    V first() {
+        final List<Entry<K, V>> entries = this.entries();
+
+        return entries.isEmpty() ? null : entries.get(0).value;
+    }
+
+    /**
+     * Performs the action for each entry in insertion order.
+     *
+     * @param action the action.
+     */
+    void forEach(final BiConsumer<? super K, ? super V> action) {
+        for (Entry<K, V> entry : this.entries()) {
+            action.accept(entry.key, entry.value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> find(final Object key) {
+        return (this.root == null) ? null : (Entry<K, V>) this.root.find(hash(key), key, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<K, V>> entries() {
+        List<Entry<K, V>> out = this.ordered;
+
+        if (out == null) {
+            final List<Entry<?, ?>> collected = new ArrayList<>(this.size);
+
+            if (this.root != null) {
+                this.root.collect(collected);
+            }
+
+            collected.sort(Comparator.comparingLong(entry -> entry.order));
+
+            out = Collections.unmodifiableList((List) collected);
+            this.ordered = out;
+        }
+
+        return out;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (other == this) {
+            return true;
+        } else if (other instanceof PersistentOrderedMap) {
+            final List<? extends Entry<?, ?>> lhs = this.entries();
+            final List<? extends Entry<?, ?>> rhs = ((PersistentOrderedMap<?, ?>) other).entries();
+
+            if (lhs.size() != rhs.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < lhs.size(); i++) {
+                if (!Objects.equals(lhs.get(i).key, rhs.get(i).key)
+                        || !Objects.equals(lhs.get(i).value, rhs.get(i).value)) {
+
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+
+        for (Entry<K, V> entry : this.entries()) {
+            hash = 31 * hash + Objects.hashCode(entry.key);
+            hash = 31 * hash + Objects.hashCode(entry.value);
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return this.keys().toString();
+    }
+
+    private static int hash(final Object key) {
+        final int h = Objects.hashCode(key);
+
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(final int hash, final int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static final class Entry<K, V> {
+
+        final K key;
+        final V value;
+        final int hash;
+        final long order;
+
+        Entry(final K key, final V value, final int hash, final long order) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.order = order;
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract Entry<?, ?> find(int hash, Object key, int shift);
+
+        abstract Node put(Entry<?, ?> entry, int shift);
+
+        abstract Node remove(int hash, Object key, int shift);
+
+        abstract void collect(List<Entry<?, ?>> out);
+    }
+
+    private static final class BitmapNode extends Node {
+
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(final int bitmap, final Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(final int bit) {
+            return Integer.bitCount(this.bitmap & (bit - 1));
+        }
+
+        @Override
+        Entry<?, ?> find(final int hash, final Object key, final int shift) {
+            final int bit = bit(hash, shift);
+
+            if ((this.bitmap & bit) == 0) {
+                return null;
+            }
+
+            final Object slot = this.slots[this.index(bit)];
+
+            if (slot instanceof Node) {
+                return ((Node) slot).find(hash, key, shift + BITS);
+            }
+
+            final Entry<?, ?> entry = (Entry<?, ?>) slot;
+
+            return Objects.equals(entry.key, key) ? entry : null;
+        }
+
+        @Override
+        Node put(final Entry<?, ?> entry, final int shift) {
+            final int bit = bit(entry.hash, shift);
+            final int idx = this.index(bit);
+
+            if ((this.bitmap & bit) == 0) {
+                final Object[] updated = new Object[this.slots.length + 1];
+
+                System.arraycopy(this.slots, 0, updated, 0, idx);
+                updated[idx] = entry;
+                System.arraycopy(this.slots, idx, updated, idx + 1, this.slots.length - idx);
+
+                return new BitmapNode(this.bitmap | bit, updated);
+            }
+
+            final Object slot = this.slots[idx];
+            final Object replacement;
+
+            if (slot instanceof Node) {
+                replacement = ((Node) slot).put(entry, shift + BITS);
+            } else {
+                final Entry<?, ?> current = (Entry<?, ?>) slot;
+
+                replacement = Objects.equals(current.key, entry.key)
+                        ? entry
+                        : merge(current, entry, shift + BITS);
+            }
+
+            final Object[] updated = this.slots.clone();
+
+            updated[idx] = replacement;
+
+            return new BitmapNode(this.bitmap, updated);
+        }
+
+        @Override
+        Node remove(final int hash, final Object key, final int shift) {
+            final int bit = bit(hash, shift);
+
+            if ((this.bitmap & bit) == 0) {
+                return this;
+            }
+
+            final int idx = this.index(bit);
+            final Object slot = this.slots[idx];
+
+            if (slot instanceof Node) {
+                final Node child = ((Node) slot).remove(hash, key, shift + BITS);
+
+                if (child == slot) {
+                    return this;
+                } else if (child != null) {
+                    final Object[] updated = this.slots.clone();
+
+                    updated[idx] = child;
+
+                    return new BitmapNode(this.bitmap, updated);
+                }
+            } else if (!Objects.equals(((Entry<?, ?>) slot).key, key)) {
+                return this;
+            }
+
+            if (this.slots.length == 1) {
+                return null;
+            }
+
+            final Object[] updated = new Object[this.slots.length - 1];
+
+            System.arraycopy(this.slots, 0, updated, 0, idx);
+            System.arraycopy(this.slots, idx + 1, updated, idx, updated.length - idx);
+
+            return new BitmapNode(this.bitmap & ~bit, updated);
+        }
+
+        @Override
+        void collect(final List<Entry<?, ?>> out) {
+            for (Object slot : this.slots) {
+                if (slot instanceof Node) {
+                    ((Node) slot).collect(out);
+                } else {
+                    out.add((Entry<?, ?>) slot);
+                }
+            }
+        }
+
+        private static Node merge(final Entry<?, ?> lhs, final Entry<?, ?> rhs, final int shift) {
+            if (lhs.hash == rhs.hash) {
+                return new CollisionNode(lhs.hash, new Entry<?, ?>[]{lhs, rhs});
+            }
+
+            final int lbit = bit(lhs.hash, shift);
+            final int rbit = bit(rhs.hash, shift);
+
+            if (lbit == rbit) {
+                return new BitmapNode(lbit, new Object[]{merge(lhs, rhs, shift + BITS)});
+            } else if (Integer.compareUnsigned(lbit, rbit) < 0) {
+                return new BitmapNode(lbit | rbit, new Object[]{lhs, rhs});
+            } else {
+                return new BitmapNode(lbit | rbit, new Object[]{rhs, lhs});
+            }
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+
+        final int hash;
+        final Entry<?, ?>[] entries;
+
+        CollisionNode(final int hash, final Entry<?, ?>[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+
+        private int indexOf(final Object key) {
+            for (int i = 0; i < this.entries.length; i++) {
+                if (Objects.equals(this.entries[i].key, key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        Entry<?, ?> find(final int hash, final Object key, final int shift) {
+            if (hash != this.hash) {
+                return null;
+            }
+
+            final int idx = this.indexOf(key);
+
+            return (idx < 0) ? null : this.entries[idx];
+        }
+
+        @Override
+        Node put(final Entry<?, ?> entry, final int shift) {
+            if (entry.hash != this.hash) {
+                // split on the first differing bits
+                return new BitmapNode(bit(this.hash, shift), new Object[]{this}).put(entry, shift);
+            }
+
+            final int idx = this.indexOf(entry.key);
+            final Entry<?, ?>[] updated;
+
+            if (idx < 0) {
+                updated = new Entry<?, ?>[this.entries.length + 1];
+                System.arraycopy(this.entries, 0, updated, 0, this.entries.length);
+                updated[this.entries.length] = entry;
+            } else {
+                updated = this.entries.clone();
+                updated[idx] = entry;
+            }
+
+            return new CollisionNode(this.hash, updated);
+        }
+
+        @Override
+        Node remove(final int hash, final Object key, final int shift) {
+            final int idx = (hash == this.hash) ? this.indexOf(key) : -1;
+
+            if (idx < 0) {
+                return this;
+            } else if (this.entries.length == 1) {
+                return null;
+            }
+
+            final Entry<?, ?>[] updated = new Entry<?, ?>[this.entries.length - 1];
+
+            System.arraycopy(this.entries, 0, updated, 0, idx);
+            System.arraycopy(this.entries, idx + 1, updated, idx, updated.length - idx);
+
+            return new CollisionNode(this.hash, updated);
+        }
+
+        @Override
+        void collect(final List<Entry<?, ?>> out) {
+            Collections.addAll(out, this.entries);
+        }
+    }
+}
@@ -40,6 +40,43 @@ import java.lang.annotation.Target;
 @Target({ElementType.TYPE})
 public @interface Plugin {
 
+    /**
+     * The lookup String of the plugin. This is an alternative to annotating a
+     * static field with Lookup and can be read without initializing the
+     * plugin class. An empty String means that the lookup is not defined here.
+     *
+     * @return the lookup.
+     */
+    String lookup() default "";
+
+    /**
+     * The name of the plugin. This is an alternative to annotating a static
+     * field with Name and can be read without initializing the plugin class.
+     * An empty String means that the name is not defined here.
+     *
+     * @return the name.
+     */
+    String name() default "";
+
+    /**
+     * The description of the plugin. This is an alternative to annotating a
+     * static field with Description and can be read without initializing the
+     * plugin class. An empty String means that the description is not defined
+     * here.
+     *
+     * @return the description.
+     */
+    String description() default "";
+
+    /**
+     * The lookups of the plugins this plugin depends on. This is an
+     * alternative to annotating a static field with Dependencies and can be
+     * read without initializing the plugin class.
+     *
+     * @return the lookups of the dependencies.
+     */
+    String[] dependencies() default {};
+
     /**
      * An annotation for lookup values. The lookup String is used for
      * initializing new instances of the Plugin. Lookup defaults to the class
@@ -68,4 +105,33 @@ public @interface Plugin {
     @Target({ElementType.FIELD})
     public static @interface Name {
     }
+
+    /**
+     * The lookups of the plugins that need to be initialized before this
+     * plugin. Dependencies are optional. The intended target should be a
+     * public static final String[].
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD})
+    public static @interface Dependencies {
+    }
+
+    /**
+     * Marks a method that handles many calls of another method at once. The
+     * intended target should be a public method that accepts a
+     * List&lt;Object[]&gt; of arguments and returns a List of results in the
+     * same order. HotSwapPlugin.invokeBatch delegates to the method when one
+     * is defined.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD})
+    public static @interface Batch {
+
+        /**
+         * The name of the method handled by the batch method.
+         *
+         * @return the method name.
+         */
+        String value();
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A PluginCalibrator selects the fastest implementation out of a set of
+ * plugins by running a short workload against each of them. The result can be
+ * persisted to a file so that later runs can skip calibration.
+ *
+ * @author zmichaels
+ * @param <Key> Lookup for plugins
+ * @param <Implementation> The plugin base type.
+ * @since 26.10.18
+ * @see PluginManager#calibratePreferred(com.longlinkislong.plugin.PluginCalibrator)
+ */
+public class PluginCalibrator<Key, Implementation> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginCalibrator.class);
+    private static final String CANDIDATES = "candidates";
+    private static final String PREFERRED = "preferred";
+
+    private final Consumer<? super Implementation> workload;
+    private final Map<Key, Long> results = new LinkedHashMap<>();
+    private int warmUpRounds = 3;
+    private int rounds = 5;
+    private Optional<Path> cacheFile = Optional.empty();
+
+    /**
+     * Constructs a new PluginCalibrator.
+     *
+     * @param workload the workload to time. It should be representative of
+     * the work the plugin will be doing and take no longer than a few
+     * milliseconds.
+     * @since 26.10.18
+     */
+    public PluginCalibrator(final Consumer<? super Implementation> workload) {
+        this.workload = Objects.requireNonNull(workload);
+    }
+
+    /**
+     * Sets the number of rounds the workload is run for each candidate. The
+     * warm up rounds are not timed. The median of the timed rounds is used.
+     *
+     * @param warmUpRounds the number of untimed rounds.
+     * @param rounds the number of timed rounds. Must be at least 1.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCalibrator<Key, Implementation> setRounds(final int warmUpRounds, final int rounds) {
+        if (warmUpRounds < 0 || rounds < 1) {
+            throw new IllegalArgumentException("Invalid number of rounds!");
+        }
+
+        this.warmUpRounds = warmUpRounds;
+        this.rounds = rounds;
+
+        return this;
+    }
+
+    /**
+     * Sets the file used for persisting the calibration. If the file holds a
+     * calibration for the same candidates, calibration is skipped. Supplying
+     * null disables persistence.
+     *
+     * @param cacheFile the file or null.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCalibrator<Key, Implementation> setCacheFile(final Path cacheFile) {
+        this.cacheFile = Optional.ofNullable(cacheFile);
+
+        return this;
+    }
+
+    /**
+     * Retrieves the median time in nanoseconds of each candidate from the last
+     * calibration. Candidates that could not be instantiated or that failed
+     * the workload are not listed. The map is empty if the last calibration
+     * was read from the cache file.
+     *
+     * @return the timings.
+     * @since 26.10.18
+     */
+    public Map<Key, Long> getResults() {
+        return Collections.unmodifiableMap(this.results);
+    }
+
+    /**
+     * Calibrates every plugin supported by the PluginManager.
+     *
+     * @param manager the PluginManager.
+     * @return the fastest plugin. May return empty if no candidate could
+     * complete the workload.
+     * @since 26.10.18
+     */
+    public Optional<Key> calibrate(final PluginManager<Key, Implementation> manager) {
+        return this.calibrate(manager, manager.listPlugins());
+    }
+
+    /**
+     * Calibrates the candidate plugins.
+     *
+     * @param manager the PluginManager used to instantiate the candidates.
+     * @param candidates the plugins to compare.
+     * @return the fastest plugin. May return empty if no candidate could
+     * complete the workload.
+     * @since 26.10.18
+     */
+    public Optional<Key> calibrate(final PluginManager<Key, Implementation> manager, final Collection<Key> candidates) {
+        final String fingerprint = fingerprint(manager, candidates);
+
+        final Optional<Key> cached = this.readCache(fingerprint)
+                .flatMap(name -> candidates.stream()
+                        .filter(key -> String.valueOf(key).equals(name))
+                        .findFirst());
+
+        if (cached.isPresent()) {
+            LOGGER.debug("Using cached calibration: {}", cached.get());
+            this.results.clear();
+            return cached;
+        }
+
+        this.results.clear();
+
+        for (Key key : candidates) {
+            final Optional<Implementation> impl = manager.tryGetImplementation(key);
+
+            if (impl.isPresent()) {
+                try {
+                    this.results.put(key, this.time(impl.get()));
+                } catch (RuntimeException ex) {
+                    LOGGER.debug("Calibration failed for {}", key);
+                    LOGGER.trace(ex.getMessage(), ex);
+                }
+            }
+        }
+
+        final Optional<Key> fastest = this.results.entrySet().stream()
+                .min(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey);
+
+        LOGGER.debug("Calibration results: {}", this.results);
+        fastest.ifPresent(key -> this.writeCache(fingerprint, key));
+
+        return fastest;
+    }
+
+    /**
+     * Describes what the cached result depends on: each candidate with its
+     * implementation class and the JVM and platform the timings were taken
+     * on. A cached result is only reused if all of these match.
+     *
+     * @param manager the PluginManager used to instantiate the candidates.
+     * @param candidates the plugins to compare.
+     * @return the fingerprint.
+     */
+    private String fingerprint(final PluginManager<Key, Implementation> manager, final Collection<Key> candidates) {
+        final String plugins;
+
+        try (RegistryView<Key, Implementation> view = manager.view()) {
+            plugins = candidates.stream()
+                    .map(key -> key + "=" + view.getImplementationClass(key)
+                            .map(Class::getName)
+                            .orElse(""))
+                    .collect(Collectors.joining(";"));
+        }
+
+        return String.join(";",
+                plugins,
+                System.getProperty("java.vm.name"),
+                System.getProperty("java.version"),
+                System.getProperty("os.name"),
+                System.getProperty("os.arch"),
+                Integer.toString(Runtime.getRuntime().availableProcessors()));
+    }
+
+    private long time(final Implementation impl) {
+        for (int i = 0; i < this.warmUpRounds; i++) {
+            this.workload.accept(impl);
+        }
+
+        final long[] samples = new long[this.rounds];
+
+        for (int i = 0; i < this.rounds; i++) {
+            final long start = System.nanoTime();
+
+            this.workload.accept(impl);
+            samples[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(samples);
+
+        return samples[samples.length / 2];
+    }
+
+    private Optional<String> readCache(final String fingerprint) {
+        if (!this.cacheFile.isPresent() || !Files.isRegularFile(this.cacheFile.get())) {
+            return Optional.empty();
+        }
+
+        final Properties props = new Properties();
+
+        try (InputStream in = Files.newInputStream(this.cacheFile.get())) {
+            props.load(in);
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to read calibration cache!");
+            LOGGER.debug(ex.getMessage(), ex);
+            return Optional.empty();
+        }
+
+        return fingerprint.equals(props.getProperty(CANDIDATES))
+                ? Optional.ofNullable(props.getProperty(PREFERRED))
+                : Optional.empty();
+    }
+
+    private void writeCache(final String fingerprint, final Key preferred) {
+        if (!this.cacheFile.isPresent()) {
+            return;
+        }
+
+        final Properties props = new Properties();
+
+        props.setProperty(CANDIDATES, fingerprint);
+        props.setProperty(PREFERRED, String.valueOf(preferred));
+        this.results.forEach((key, time) -> props.setProperty("time." + key, Long.toString(time)));
+
+        try (OutputStream out = Files.newOutputStream(this.cacheFile.get())) {
+            props.store(out, "PluginCalibrator results");
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to write calibration cache!");
+            LOGGER.debug(ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Trials a candidate plugin against the plugin currently used by a
+ * HotSwapPlugin. In CANARY mode a percentage of live calls is sent to the
+ * candidate instead of the current plugin. In SHADOW mode every call is
+ * mirrored to the candidate on an executor and the candidate's result is
+ * discarded after being compared with the result of the current plugin.
+ *
+ * The latency and failures of both plugins are recorded, along with the
+ * results that diverged in SHADOW mode when a comparator is set. Once the
+ * candidate has handled enough calls it is either promoted, replacing the
+ * current plugin, or rolled back, depending on the thresholds.
+ *
+ * @author zmichaels
+ * @param <PluginType> the type of plugin.
+ * @since 26.10.18
+ * @see HotSwapPlugin#startCanary(PluginCanary)
+ */
+public final class PluginCanary<PluginType> {
+
+    /**
+     * How calls reach the candidate.
+     *
+     * @since 26.10.18
+     */
+    public enum Mode {
+        /**
+         * A percentage of calls is handled by the candidate.
+         */
+        CANARY,
+        /**
+         * Every call is mirrored to the candidate and its result discarded.
+         */
+        SHADOW
+    }
+
+    /**
+     * The progress of the trial.
+     *
+     * @since 26.10.18
+     */
+    public enum State {
+        /**
+         * The candidate has not been attached to a HotSwapPlugin yet.
+         */
+        PENDING,
+        /**
+         * The candidate is receiving calls.
+         */
+        RUNNING,
+        /**
+         * The candidate replaced the current plugin.
+         */
+        PROMOTED,
+        /**
+         * The candidate was discarded.
+         */
+        ROLLED_BACK
+    }
+
+    private final PluginType candidate;
+    private final HotSwapPlugin<PluginType> candidatePlugin;
+    private final Mode mode;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private final AtomicBoolean evaluating = new AtomicBoolean();
+    private volatile HotSwapPlugin<PluginType> owner;
+
+    private volatile double percentage = 0.05;
+    private volatile long minSamples = 100;
+    private volatile double maxLatencyRatio = 1.2;
+    private volatile double maxFailureRate = 0.01;
+    private volatile double maxDivergenceRate = 0.0;
+    private volatile boolean automatic = true;
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile BiPredicate<Object, Object> comparator = null;
+
+    private final LongAdder currentCalls = new LongAdder();
+    private final LongAdder currentNanos = new LongAdder();
+    private final LongAdder currentFailures = new LongAdder();
+    private final LongAdder candidateCalls = new LongAdder();
+    private final LongAdder candidateNanos = new LongAdder();
+    private final LongAdder candidateFailures = new LongAdder();
+    private final LongAdder divergences = new LongAdder();
+
+    /**
+     * Constructs a new PluginCanary.
+     *
+     * @param candidate the candidate plugin.
+     * @param mode how calls reach the candidate.
+     * @since 26.10.18
+     */
+    public PluginCanary(final PluginType candidate, final Mode mode) {
+        this.candidate = Objects.requireNonNull(candidate);
+        this.candidatePlugin = new HotSwapPlugin<>(candidate);
+        this.mode = Objects.requireNonNull(mode);
+    }
+
+    /**
+     * Sets the fraction of calls handled by the candidate in CANARY mode.
+     * The default is 0.05.
+     *
+     * @param percentage the fraction of calls between 0 and 1.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setPercentage(final double percentage) {
+        if (percentage < 0.0 || percentage > 1.0) {
+            throw new IllegalArgumentException("Percentage must be between 0 and 1!");
+        }
+
+        this.percentage = percentage;
+        return this;
+    }
+
+    /**
+     * Sets the number of calls the candidate handles before it is promoted or
+     * rolled back. The default is 100.
+     *
+     * @param minSamples the number of calls.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setMinSamples(final long minSamples) {
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    /**
+     * Sets the thresholds for rolling back the candidate. The candidate is
+     * rolled back if its average latency exceeds the average latency of the
+     * current plugin by more than maxLatencyRatio, if more than
+     * maxFailureRate of its calls fail or, in SHADOW mode with a comparator,
+     * if more than maxDivergenceRate of its results differ from the current
+     * plugin. The defaults are 1.2, 0.01 and 0.
+     *
+     * @param maxLatencyRatio the maximum latency relative to the current
+     * plugin.
+     * @param maxFailureRate the maximum fraction of failed calls.
+     * @param maxDivergenceRate the maximum fraction of diverging results.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setThresholds(final double maxLatencyRatio, final double maxFailureRate, final double maxDivergenceRate) {
+        this.maxLatencyRatio = maxLatencyRatio;
+        this.maxFailureRate = maxFailureRate;
+        this.maxDivergenceRate = maxDivergenceRate;
+        return this;
+    }
+
+    /**
+     * Sets if the candidate is promoted or rolled back automatically once it
+     * has handled enough calls. The decision is made on the executor, not on
+     * the thread of the call. The default is true.
+     *
+     * @param automatic if the trial ends automatically.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setAutomatic(final boolean automatic) {
+        this.automatic = automatic;
+        return this;
+    }
+
+    /**
+     * Sets the comparator used in SHADOW mode to check if the candidate
+     * returned the same result as the current plugin. Results are not
+     * compared unless a comparator is set, since many result types have no
+     * value based equals.
+     *
+     * @param comparator tests if two results are equivalent. May be null.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setComparator(final BiPredicate<Object, Object> comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+
+    /**
+     * Sets the executor that runs mirrored calls in SHADOW mode and the
+     * automatic promotion or rollback. The default is the common ForkJoinPool. The parameters of each call are shared with
+     * the mirrored call, so they should not be modified by either plugin.
+     *
+     * @param executor the executor.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginCanary<PluginType> setExecutor(final Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+        return this;
+    }
+
+    /**
+     * Retrieves the candidate plugin.
+     *
+     * @return the candidate.
+     * @since 26.10.18
+     */
+    public PluginType getCandidate() {
+        return this.candidate;
+    }
+
+    /**
+     * Retrieves the mode of the trial.
+     *
+     * @return the mode.
+     * @since 26.10.18
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Retrieves the progress of the trial.
+     *
+     * @return the state.
+     * @since 26.10.18
+     */
+    public State getState() {
+        return this.state.get();
+    }
+
+    /**
+     * Retrieves the number of calls handled by the candidate.
+     *
+     * @return the number of calls.
+     * @since 26.10.18
+     */
+    public long getCandidateCalls() {
+        return this.candidateCalls.sum();
+    }
+
+    /**
+     * Retrieves the number of mirrored calls whose result differed from the
+     * current plugin.
+     *
+     * @return the number of diverging calls.
+     * @since 26.10.18
+     */
+    public long getDivergences() {
+        return this.divergences.sum();
+    }
+
+    /**
+     * Retrieves the average latency of the current plugin during the trial.
+     *
+     * @return the average latency in nanoseconds. Returns NaN if no calls
+     * were recorded.
+     * @since 26.10.18
+     */
+    public double getCurrentLatency() {
+        return average(this.currentNanos, this.currentCalls);
+    }
+
+    /**
+     * Retrieves the average latency of the candidate.
+     *
+     * @return the average latency in nanoseconds. Returns NaN if no calls
+     * were recorded.
+     * @since 26.10.18
+     */
+    public double getCandidateLatency() {
+        return average(this.candidateNanos, this.candidateCalls);
+    }
+
+    private static double average(final LongAdder nanos, final LongAdder calls) {
+        final long count = calls.sum();
+
+        return (count == 0) ? Double.NaN : (double) nanos.sum() / count;
+    }
+
+    void attach(final HotSwapPlugin<PluginType> plugin) {
+        if (!this.state.compareAndSet(State.PENDING, State.RUNNING)) {
+            throw new PluginException("Canary has already been started!");
+        }
+
+        this.owner = plugin;
+    }
+
+    Object invoke(final HotSwapPlugin<PluginType> plugin, final String method, final Object[] params) {
+        if (this.mode == Mode.CANARY
+                && this.state.get() == State.RUNNING
+                && ThreadLocalRandom.current().nextDouble() < this.percentage) {
+
+            try {
+                return this.timed(this.candidatePlugin, method, params, this.candidateCalls, this.candidateNanos, this.candidateFailures);
+            } catch (HotSwapPlugin.RetiredException ex) {
+                // the trial ended after the candidate was chosen
+                return plugin.invokeCurrent(method, params);
+            }
+        }
+
+        final Object result = this.timed(plugin, method, params, this.currentCalls, this.currentNanos, this.currentFailures);
+
+        if (this.mode == Mode.SHADOW) {
+            try {
+                this.executor.execute(() -> this.mirror(method, params, result));
+            } catch (RejectedExecutionException ex) {
+                // mirrored calls are best effort
+            }
+        }
+
+        return result;
+    }
+
+    private void mirror(final String method, final Object[] params, final Object expected) {
+        if (this.state.get() != State.RUNNING) {
+            return;
+        }
+
+        try {
+            final Object actual = this.timed(this.candidatePlugin, method, params, this.candidateCalls, this.candidateNanos, this.candidateFailures);
+            final BiPredicate<Object, Object> test = this.comparator;
+
+            if (test != null && !test.test(expected, actual)) {
+                this.divergences.increment();
+            }
+        } catch (HotSwapPlugin.RetiredException ex) {
+            // the trial ended before the mirrored call ran
+        } catch (RuntimeException ex) {
+            // recorded as a failure of the candidate
+        }
+    }
+
+    private Object timed(
+            final HotSwapPlugin<PluginType> plugin,
+            final String method,
+            final Object[] params,
+            final LongAdder calls,
+            final LongAdder nanos,
+            final LongAdder failures) {
+
+        final long start = System.nanoTime();
+
+        try {
+            final Object result = plugin.invokeCurrent(method, params);
+
+            this.record(calls, nanos, start);
+            return result;
+        } catch (HotSwapPlugin.RetiredException ex) {
+            // the call never reached the retired plugin, so it is not recorded
+            throw ex;
+        } catch (RuntimeException ex) {
+            failures.increment();
+            this.record(calls, nanos, start);
+            throw ex;
+        } catch (Error err) {
+            this.record(calls, nanos, start);
+            throw err;
+        }
+    }
+
+    private void record(final LongAdder calls, final LongAdder nanos, final long start) {
+        nanos.add(System.nanoTime() - start);
+        calls.increment();
+
+        if (calls == this.candidateCalls) {
+            this.scheduleEvaluation();
+        }
+    }
+
+    private void scheduleEvaluation() {
+        if (!this.automatic
+                || this.candidateCalls.sum() < this.minSamples
+                || this.state.get() != State.RUNNING
+                || !this.evaluating.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // promotion swaps and may close plugins, so it stays off the call path
+            this.executor.execute(this::evaluate);
+        } catch (RejectedExecutionException ex) {
+            this.evaluating.set(false);
+        }
+    }
+
+    private void evaluate() {
+        try {
+            if (this.state.get() != State.RUNNING) {
+                return;
+            }
+
+            if (this.isWithinThresholds(this.candidateCalls.sum())) {
+                this.promote();
+            } else {
+                this.rollback();
+            }
+        } finally {
+            this.evaluating.set(false);
+        }
+    }
+
+    private boolean isWithinThresholds(final long samples) {
+        final double currentLatency = this.getCurrentLatency();
+
+        if (!Double.isNaN(currentLatency) && this.getCandidateLatency() > currentLatency * this.maxLatencyRatio) {
+            return false;
+        } else if ((double) this.candidateFailures.sum() / samples > this.maxFailureRate) {
+            return false;
+        } else {
+            return (double) this.divergences.sum() / samples <= this.maxDivergenceRate;
+        }
+    }
+
+    /**
+     * Replaces the current plugin with the candidate and ends the trial. The
+     * candidate keeps the state it built up during the trial; the upgrade
+     * function is not called again.
+     *
+     * @return true if the candidate was promoted by this call.
+     * @since 26.10.18
+     */
+    public boolean promote() {
+        if (this.state.compareAndSet(State.RUNNING, State.PROMOTED)) {
+            final HotSwapPlugin<PluginType> plugin = this.owner;
+
+            try {
+                plugin.adopt(this.candidatePlugin);
+            } catch (PluginException ex) {
+                // a swap transaction holds the plugin; the trial keeps running
+                this.state.set(State.RUNNING);
+                throw ex;
+            }
+
+            plugin.endCanary(this);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Discards the candidate and ends the trial. The current plugin is kept.
+     * The candidate is closed once its running calls exit if it is
+     * AutoCloseable.
+     *
+     * @return true if the candidate was rolled back by this call.
+     * @since 26.10.18
+     */
+    public boolean rollback() {
+        if (this.state.compareAndSet(State.RUNNING, State.ROLLED_BACK)) {
+            this.owner.endCanary(this);
+            this.candidatePlugin.retire(this.owner.current());
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PluginCanary %s [%s]: %d candidate calls, %.0fns vs %.0fns, %d divergences",
+                this.mode,
+                this.state.get(),
+                this.candidateCalls.sum(),
+                this.getCandidateLatency(),
+                this.getCurrentLatency(),
+                this.divergences.sum());
+    }
+}
@@ -25,6 +25,9 @@
  */
 package com.longlinkislong.plugin;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +53,11 @@ public final class PluginDescriptor {
      * The description of the plugin. Default value is an empty String.
      */
     public final String description;
+    /**
+     * The lookups of the plugins this plugin depends on. Default value is an
+     * empty List.
+     */
+    public final List<String> dependencies;
     /**
      * The class definition.
      */
@@ -196,6 +204,15 @@ public final class PluginDescriptor {
         return this.description.isEmpty();
     }
 
+    /**
+     * Checks if the dependencies field is currently the default value.
+     *
+     * @return true if the Dependencies field was never changed.
+     */
+    public boolean isDependenciesDefault() {
+        return this.dependencies.isEmpty();
+    }
+
     /**
      * Merges the left hand side PluginDescriptor with the right hand side
      * PluginDescriptor. Changes will only be made when a field in the lhs
@@ -214,15 +231,19 @@ public final class PluginDescriptor {
         PluginDescriptor out = lhs;
 
         if (lhs.isNameDefault()) {
-            out = lhs.withName(rhs.name);
+            out = out.withName(rhs.name);
         }
 
         if (lhs.isLookupDefault()) {
-            out = lhs.withLookup(rhs.lookup);
+            out = out.withLookup(rhs.lookup);
         }
 
         if (lhs.isDescriptionDefault()) {
-            out = lhs.withDescription(rhs.description);
+            out = out.withDescription(rhs.description);
+        }
+
+        if (lhs.isDependenciesDefault()) {
+            out = out.withDependencies(rhs.dependencies);
         }
 
         return out;
@@ -248,10 +269,25 @@ public final class PluginDescriptor {
      * @param desc the description
      */
     public PluginDescriptor(final Class<?> clazz, final String lookup, final String name, final String desc) {
+        this(clazz, lookup, name, desc, Collections.emptyList());
+    }
+
+    /**
+     * Constructs a new MetaClass.
+     *
+     * @param clazz the class definition.
+     * @param lookup the lookup value.
+     * @param name the name
+     * @param desc the description
+     * @param dependencies the lookups of the plugins this plugin depends on.
+     * @since 26.10.18
+     */
+    public PluginDescriptor(final Class<?> clazz, final String lookup, final String name, final String desc, final List<String> dependencies) {
         this.clazz = clazz;
         this.lookup = lookup;
         this.name = name;
         this.description = desc;
+        this.dependencies = Collections.unmodifiableList(new ArrayList<>(dependencies));
     }
 
     /**
@@ -262,7 +298,7 @@ public final class PluginDescriptor {
      * @return the new PluginDescriptor.
      */
     public PluginDescriptor withLookup(final String lookup) {
-        return new PluginDescriptor(clazz, lookup, name, description);
+        return new PluginDescriptor(clazz, lookup, name, description, dependencies);
     }
 
     /**
@@ -272,7 +308,7 @@ public final class PluginDescriptor {
      * @return the new PluginDescriptor.
      */
     public PluginDescriptor withName(final String name) {
-        return new PluginDescriptor(clazz, lookup, name, description);
+        return new PluginDescriptor(clazz, lookup, name, description, dependencies);
     }
 
     /**
@@ -283,7 +319,19 @@ public final class PluginDescriptor {
      * @return the new PluginDescriptor.
      */
     public PluginDescriptor withDescription(final String description) {
-        return new PluginDescriptor(clazz, lookup, name, description);
+        return new PluginDescriptor(clazz, lookup, name, description, dependencies);
+    }
+
+    /**
+     * Creates a new instance of this PluginDescriptor with the new
+     * dependencies value.
+     *
+     * @param dependencies the lookups of the plugins this plugin depends on.
+     * @return the new PluginDescriptor.
+     * @since 26.10.18
+     */
+    public PluginDescriptor withDependencies(final List<String> dependencies) {
+        return new PluginDescriptor(clazz, lookup, name, description, dependencies);
     }
 
     @Override
@@ -302,6 +350,11 @@ public final class PluginDescriptor {
             out.append(this.description);
         }
 
+        if (!this.isDependenciesDefault()) {
+            out.append(" dependencies=");
+            out.append(this.dependencies);
+        }
+
         out.append("]");
 
         return out.toString();
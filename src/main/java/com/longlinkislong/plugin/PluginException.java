@@ -67,4 +67,19 @@ public class PluginException extends RuntimeException {
     public PluginException(final Throwable cause) {
         super(cause);
     }
+
+    /**
+     * Constructs a PluginException with a message and cause that optionally
+     * skips filling in the stack trace. Stackless exceptions are cheap to
+     * construct and should be used for expected failures such as missing
+     * lookups.
+     * @param msg the description of the exception
+     * @param cause the cause of the exception. May be null.
+     * @param writableStackTrace whether or not the stack trace should be
+     * filled in
+     * @since 26.10.18
+     */
+    public PluginException(final String msg, final Throwable cause, final boolean writableStackTrace) {
+        super(msg, cause, false, writableStackTrace);
+    }
 }
@@ -27,6 +27,7 @@ package com.longlinkislong.plugin;
 
 import java.util.Collection;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * PluginHandler defines the needed functionality for Plugin systems
@@ -37,7 +38,10 @@ import java.util.Optional;
 public interface PluginHandler<BaseType> {
 
     /**
-     * Attempts to register a PluginDescriptor as a plugin
+     * Attempts to register a PluginDescriptor as a plugin. A PluginHandler
+     * should only register plugins whose class is accepted by supportsType;
+     * PluginScanner routes plugins by supportsType and will not offer a plugin
+     * to any handler if none support it.
      *
      * @param plugin the PluginDescriptor to register
      * @return true if the PluginDescriptor was registered by this PluginHandler
@@ -68,10 +72,36 @@ public interface PluginHandler<BaseType> {
      */
     Collection<PluginDescriptor> listPlugins();
 
+    /**
+     * List all plugins registered with this PluginHandler whose class is a
+     * subtype of the capability. The default implementation filters
+     * listPlugins.
+     *
+     * @param capability the class or interface the plugins must implement.
+     * @return collection of each matching PluginDescriptor.
+     */
+    default Collection<PluginDescriptor> listPlugins(Class<?> capability) {
+        return listPlugins().stream()
+                .filter(plugin -> capability.isAssignableFrom(plugin.clazz))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Gets the descriptor that is assigned to this lookup
      * @param lookup lookup to find the descriptor
      * @return Optional.empty if no lookup is found
      */
     Optional<PluginDescriptor> getDescriptor(String lookup);
+
+    /**
+     * Prepares the plugin with the specified ID ahead of its first use. The
+     * default implementation does nothing.
+     *
+     * @param id the plugin id.
+     * @param initialize if the plugin class and any singleton instance should
+     * be initialized.
+     * @throws PluginException if the plugin could not be prepared.
+     */
+    default void warmUp(String id, boolean initialize) {
+    }
 }
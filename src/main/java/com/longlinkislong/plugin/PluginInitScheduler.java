@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * PluginInitScheduler orders the initialization of plugins that depend on
+ * other plugins. The dependency graph is split into topological waves; every
+ * plugin in a wave only depends on plugins from earlier waves, so each wave is
+ * initialized in parallel.
+ *
+ * @author zmichaels
+ * @param <Key> the plugin lookup type.
+ * @since 26.10.18
+ */
+public final class PluginInitScheduler<Key> {
+
+    private final Map<Key, Set<Key>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * Adds a plugin and the plugins it depends on. Adding the same plugin
+     * multiple times merges the dependencies.
+     *
+     * @param key the plugin.
+     * @param dependsOn the plugins that must be initialized first.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginInitScheduler<Key> add(final Key key, final Collection<? extends Key> dependsOn) {
+        this.dependencies.computeIfAbsent(key, k -> new LinkedHashSet<>()).addAll(dependsOn);
+
+        return this;
+    }
+
+    /**
+     * Adds a plugin without dependencies.
+     *
+     * @param key the plugin.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public PluginInitScheduler<Key> add(final Key key) {
+        return this.add(key, Collections.emptySet());
+    }
+
+    /**
+     * Splits the plugins into topological waves. Dependencies on plugins that
+     * were never added are ignored for ordering. Plugins within a wave are in
+     * the order they were added.
+     *
+     * @return the waves in initialization order.
+     * @throws PluginException if the dependencies contain a cycle. The
+     * message lists the plugins on one cycle.
+     * @since 26.10.18
+     */
+    public List<List<Key>> getWaves() throws PluginException {
+        // linked so that the waves do not depend on hashing
+        final Map<Key, Integer> pending = new LinkedHashMap<>();
+        final Map<Key, List<Key>> dependents = new LinkedHashMap<>();
+
+        this.dependencies.forEach((key, deps) -> {
+            int count = 0;
+
+            for (Key dep : deps) {
+                if (this.dependencies.containsKey(dep)) {
+                    dependents.computeIfAbsent(dep, k -> new ArrayList<>()).add(key);
+                    count++;
+                }
+            }
+
+            pending.put(key, count);
+        });
+
+        final List<List<Key>> waves = new ArrayList<>();
+        List<Key> wave = new ArrayList<>();
+
+        for (Map.Entry<Key, Integer> entry : pending.entrySet()) {
+            if (entry.getValue() == 0) {
+                wave.add(entry.getKey());
+            }
+        }
+
+        int scheduled = 0;
+
+        while (!wave.isEmpty()) {
+            final List<Key> next = new ArrayList<>();
+
+            for (Key key : wave) {
+                for (Key dependent : dependents.getOrDefault(key, Collections.emptyList())) {
+                    if (pending.merge(dependent, -1, Integer::sum) == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+
+            scheduled += wave.size();
+            waves.add(Collections.unmodifiableList(wave));
+            wave = next;
+        }
+
+        if (scheduled != this.dependencies.size()) {
+            throw new PluginException("Cyclic plugin dependencies: " + findCycle(pending));
+        }
+
+        return Collections.unmodifiableList(waves);
+    }
+
+    /**
+     * Finds a cycle among the plugins that could not be scheduled. Each of
+     * them still waits on at least one unscheduled dependency, so following
+     * those dependencies must return to a plugin that was already visited.
+     * Plugins that only depend on the cycle are not part of it.
+     *
+     * @param pending the number of unscheduled dependencies of each plugin.
+     * @return the plugins on the cycle in dependency order.
+     */
+    private List<Key> findCycle(final Map<Key, Integer> pending) {
+        final Map<Key, Integer> visited = new LinkedHashMap<>();
+        Key key = null;
+
+        for (Map.Entry<Key, Integer> entry : pending.entrySet()) {
+            if (entry.getValue() > 0) {
+                key = entry.getKey();
+                break;
+            }
+        }
+
+        while (!visited.containsKey(key)) {
+            visited.put(key, visited.size());
+
+            for (Key dep : this.dependencies.get(key)) {
+                if (pending.getOrDefault(dep, 0) > 0) {
+                    key = dep;
+                    break;
+                }
+            }
+        }
+
+        final List<Key> path = new ArrayList<>(visited.keySet());
+
+        return Collections.unmodifiableList(path.subList(visited.get(key), path.size()));
+    }
+
+    /**
+     * Runs the action for every plugin one wave at a time. Plugins within a
+     * wave run in parallel on the executor. A plugin is not run if any of its
+     * dependencies failed or were never added; it is reported as failed
+     * instead.
+     *
+     * @param executor the executor to run the actions on.
+     * @param action the initialization action.
+     * @param listener the progress listener. It is called as each plugin
+     * completes with either null or the cause of the failure.
+     * @return a future that completes with each plugin that failed and its
+     * cause.
+     * @throws PluginException if the dependencies contain a cycle.
+     * @since 26.10.18
+     */
+    public CompletableFuture<Map<Key, Throwable>> run(
+            final Executor executor,
+            final Consumer<? super Key> action,
+            final BiConsumer<? super Key, ? super Throwable> listener) throws PluginException {
+
+        final Map<Key, Throwable> failures = new ConcurrentHashMap<>();
+        CompletableFuture<?> chain = CompletableFuture.completedFuture(null);
+
+        for (List<Key> wave : this.getWaves()) {
+            chain = chain.thenCompose(ignored -> ParallelTasks.forEach(
+                    wave,
+                    key -> {
+                        this.checkDependencies(key, failures);
+                        action.accept(key);
+                    },
+                    executor,
+                    listener)
+                    .thenAccept(failures::putAll));
+        }
+
+        return chain.thenApply(ignored -> Collections.unmodifiableMap(failures));
+    }
+
+    private void checkDependencies(final Key key, final Map<Key, Throwable> failures) {
+        for (Key dep : this.dependencies.get(key)) {
+            if (!this.dependencies.containsKey(dep)) {
+                throw new PluginException("Missing dependency: " + dep, null, false);
+            } else if (failures.containsKey(dep)) {
+                throw new PluginException("Dependency failed: " + dep, null, false);
+            }
+        }
+    }
+}
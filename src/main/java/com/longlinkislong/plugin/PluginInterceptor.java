@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+
+/**
+ * Adds behavior around the methods called through a HotSwapPlugin. An
+ * interceptor composes its behavior into the MethodHandle of each method
+ * using the combinators of MethodHandles such as foldArguments,
+ * filterArguments and filterReturnValue. The composed handle is cached with
+ * the plugin instance, so the JIT may inline the interceptors into the call.
+ * The handles are rebuilt whenever the plugin is swapped.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ * @see HotSwapPlugin#addInterceptor(PluginInterceptor)
+ */
+@FunctionalInterface
+public interface PluginInterceptor {
+
+    /**
+     * Wraps the handle of a plugin method. The handle is already bound to the
+     * plugin instance, so its parameters are the parameters of the method.
+     * The returned handle must have the same type as the target. Returning
+     * the target itself leaves the method unchanged.
+     *
+     * @param method the method being called.
+     * @param target the handle to wrap.
+     * @return the wrapped handle.
+     * @since 26.10.18
+     */
+    MethodHandle intercept(Method method, MethodHandle target);
+}
@@ -27,16 +27,28 @@ package com.longlinkislong.plugin;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
-import java.lang.invoke.MethodType;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +58,12 @@ import org.slf4j.LoggerFactory;
  * plugin. Through the PluginManager, the application can instantiate new
  * plugins as defined by the PluginSelector.
  *
+ * Lookups read an immutable generation of the registry. A change is seen
+ * immediately by the thread that made it. Other threads keep reading the
+ * current generation while a single background rebuild publishes the change,
+ * so readers never wait for a rebuild. rebuildSelector publishes every change
+ * immediately.
+ *
  * @author zmichaels
  * @param <Key> Lookup for plugins
  * @param <Implementation> The plugin base type.
@@ -54,13 +72,21 @@ import org.slf4j.LoggerFactory;
  */
 public class PluginManager<Key, Implementation> {
 
-    private final Map<Key, Class<? extends Implementation>> implementations = new HashMap<>();
-    private final Map<Class<? extends Implementation>, MethodHandle> constructors = new HashMap<>();
-
-    private PluginSelector<Key, Implementation> selector;
     private final PluginSelectorBuilder<Key, Implementation> builder = new PluginSelectorBuilder<>();
-    private Implementation selectedImpl = null;
+    private final AtomicReference<RegistryGeneration<Key, Implementation>> generation = new AtomicReference<>();
+    private final AtomicLong generationIds = new AtomicLong();
+    private final Map<List<Class<?>>, MethodHandle> factories = new ConcurrentHashMap<>();
+    // counts changes to the registry; a generation is current once it reflects the latest change
+    private final AtomicLong changes = new AtomicLong();
+    // the last change made by each thread, so that a thread always reads its own changes
+    private final ThreadLocal<long[]> ownChanges = ThreadLocal.withInitial(() -> new long[1]);
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile Executor rebuildExecutor = ForkJoinPool.commonPool();
+    private volatile Key preferredKey = null;
+    private volatile WeightedPluginSelector<Key, Implementation> weighted = null;
+    private volatile Executor migrationExecutor = ForkJoinPool.commonPool();
     private final Map<Key, List<WeakReference<HotSwapPlugin<Implementation>>>> hotswapPlugins = new HashMap<>();
+    private final Map<Key, GuardedPlugin<Implementation>> guardedPlugins = new ConcurrentHashMap<>();
     private static final Logger LOGGER = LoggerFactory.getLogger(PluginManager.class);
 
     /**
@@ -71,8 +97,19 @@ public class PluginManager<Key, Implementation> {
      * @since 15.12.10
      */
     public void removePlugin(final Key key) {
-        this.implementations.remove(key);
-        this.hotswapPlugins.remove(key);
+        this.builder.remove(key);
+
+        synchronized (this.hotswapPlugins) {
+            this.hotswapPlugins.remove(key);
+        }
+
+        final GuardedPlugin<Implementation> guarded = this.guardedPlugins.remove(key);
+
+        if (guarded != null) {
+            guarded.close();
+        }
+
+        this.markChanged();
     }
 
     /**
@@ -82,9 +119,7 @@ public class PluginManager<Key, Implementation> {
      * @since 15.01.06
      */
     public List<Key> listPlugins() {
-        this.checkSelector();
-
-        return Collections.unmodifiableList(this.selector.getSupported());
+        return this.checkSelector().keys;
     }
 
     /**
@@ -95,7 +130,12 @@ public class PluginManager<Key, Implementation> {
      */
     public final void registerSelector(final PluginSelector<Key, Implementation> selector) {
         this.builder.join(selector);
-        this.selector = null;
+
+        if (selector instanceof WeightedPluginSelector) {
+            this.weighted = (WeightedPluginSelector<Key, Implementation>) selector;
+        }
+
+        this.markChanged();
     }
 
     /**
@@ -107,7 +147,7 @@ public class PluginManager<Key, Implementation> {
      */
     public final void registerSelector(final PluginSelectorBuilder<Key, Implementation> selectorBuilder) {
         this.builder.join(selectorBuilder);
-        this.selector = null;
+        this.markChanged();
     }
 
     /**
@@ -120,7 +160,7 @@ public class PluginManager<Key, Implementation> {
      */
     public final void registerSelector(final String selectorDef) throws ClassNotFoundException {
         this.builder.join(selectorDef);
-        this.selector = null;
+        this.markChanged();
     }
 
     /**
@@ -129,25 +169,198 @@ public class PluginManager<Key, Implementation> {
      * @since 15.07.28
      */
     public void rebuildSelector() {
-        this.selector = null;
+        this.markChanged();
         this.checkSelector();
     }
 
-    private void checkSelector() {
-        if (this.selector == null) {
-            this.selectedImpl = null;
-            this.selector = this.builder.getSelector();
-            this.implementations.clear();
-            this.selector.registerImplements(this.implementations);
+    /**
+     * Rebuilds the internal plugin selector on the executor. Callers continue
+     * to see the current generation of the registry until the rebuilt
+     * generation is published. Hot swap plugins are updated once the rebuilt
+     * generation is published.
+     *
+     * @param executor the executor to rebuild on.
+     * @return a future that completes with the generation number that is
+     * current once the rebuild has been published.
+     * @since 26.10.18
+     * @see RegistryView#getGeneration()
+     */
+    public CompletableFuture<Long> rebuildAsync(final Executor executor) {
+        final long id;
+        final long target;
+        final PluginSelector<Key, Implementation> snapshot;
+        final Key preferred;
+
+        synchronized (this.generationIds) {
+            id = this.generationIds.incrementAndGet();
+            target = this.changes.get();
+            snapshot = this.builder.getSelector();
+            preferred = this.preferredKey;
+        }
+
+        return CompletableFuture
+                .supplyAsync(() -> this.publish(new RegistryGeneration<>(id, target, snapshot, preferred, this.factories)), executor)
+                .thenApply(published -> published.id);
+    }
+
+    /**
+     * Pins the current generation of the registry. Every lookup made through
+     * the view sees the same keys, implementations and preferred key, even if
+     * the PluginManager is rebuilt while the view is open. The view should be
+     * closed once it is no longer needed.
+     *
+     * @return the view.
+     * @since 26.10.18
+     */
+    public RegistryView<Key, Implementation> view() {
+        while (true) {
+            final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+
+            // the generation may have been reclaimed after it was replaced
+            if (current.pin()) {
+                return new RegistryView<>(current);
+            }
+        }
+    }
+
+    /**
+     * Records a change to the registry. The next generation is built by the
+     * first thread that made a change and reads the registry, or in the
+     * background once another thread reads it.
+     */
+    private void markChanged() {
+        this.ownChanges.get()[0] = this.changes.incrementAndGet();
+    }
+
+    /**
+     * Sets the executor that rebuilds the registry after it was changed by
+     * another thread. Readers are served the current generation until the
+     * rebuilt generation is published. The default is the common
+     * ForkJoinPool.
+     *
+     * @param executor the executor.
+     * @since 26.10.18
+     */
+    public void setRebuildExecutor(final Executor executor) {
+        this.rebuildExecutor = Objects.requireNonNull(executor);
+    }
+
+    private RegistryGeneration<Key, Implementation> checkSelector() {
+        final RegistryGeneration<Key, Implementation> current = this.generation.get();
+
+        if (current == null) {
+            return this.build(this.changes.get());
+        } else if (current.changes == this.changes.get()) {
+            return current;
+        }
+
+        final long own = this.ownChanges.get()[0];
+
+        if (current.changes >= own) {
+            // only other threads changed the registry, so this one does not wait for the rebuild
+            this.scheduleRebuild();
+            return current;
+        }
+
+        return this.build(own);
+    }
+
+    private void scheduleRebuild() {
+        if (!this.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.rebuildExecutor.execute(() -> {
+                try {
+                    this.build(this.changes.get());
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Unable to rebuild the plugin registry!");
+                    LOGGER.debug(ex.getMessage(), ex);
+                } finally {
+                    // a change made during the rebuild is picked up by the next read
+                    this.rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            this.rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Builds and publishes a generation unless the current generation already
+     * reflects the change. Only one generation is built at a time.
+     *
+     * @param needed the change the generation must reflect.
+     * @return the current generation.
+     */
+    private RegistryGeneration<Key, Implementation> build(final long needed) {
+        final RegistryGeneration<Key, Implementation> installed;
+
+        synchronized (this.generationIds) {
+            final RegistryGeneration<Key, Implementation> latest = this.generation.get();
+
+            // another thread rebuilt the registry while this one waited
+            if (latest != null && latest.changes >= needed) {
+                return latest;
+            }
+
+            // read before the snapshot so the snapshot holds at least this change
+            final long target = this.changes.get();
+
+            installed = this.install(new RegistryGeneration<>(this.generationIds.incrementAndGet(), target, this.builder.getSelector(), this.preferredKey, this.factories));
+        }
+
+        // swapping takes the hot swap lock, so it runs outside of the registry lock
+        this.swapHotPlugins(installed);
+        return installed;
+    }
+
+    private RegistryGeneration<Key, Implementation> publish(final RegistryGeneration<Key, Implementation> next) {
+        final RegistryGeneration<Key, Implementation> installed = this.install(next);
+
+        this.swapHotPlugins(installed);
+        return installed;
+    }
+
+    private RegistryGeneration<Key, Implementation> install(final RegistryGeneration<Key, Implementation> next) {
+        while (true) {
+            final RegistryGeneration<Key, Implementation> current = this.generation.get();
+
+            if (current != null && current.id > next.id) {
+                // a newer generation was published first
+                next.retire();
+                return current;
+            } else if (this.generation.compareAndSet(current, next)) {
+                if (current != null) {
+                    current.retire();
+                }
+
+                // factories of unchanged classes stay resolved across generations
+                final Set<Class<?>> live = new HashSet<>(next.implementations.values());
+
+                this.factories.keySet().removeIf(signature -> !live.contains(signature.get(0)));
+
+                return next;
+            }
+        }
+    }
+
+    private void swapHotPlugins(final RegistryGeneration<Key, Implementation> published) {
+        synchronized (this.hotswapPlugins) {
+            if (this.generation.get() != published) {
+                // the newer generation will swap the plugins
+                return;
+            }
 
             for (Key key : this.hotswapPlugins.keySet()) {
                 List<WeakReference<HotSwapPlugin<Implementation>>> plugins = this.hotswapPlugins.get(key);
 
-                if (!this.implementations.containsKey(key)) {
+                if (!published.implementations.containsKey(key)) {
                     continue;
                 }
 
-                final String keyType = this.implementations.get(key).getTypeName();
+                final String keyType = published.implementations.get(key).getTypeName();
 
                 // remove all dead plugins
                 plugins = plugins.stream()
@@ -155,7 +368,7 @@ public class PluginManager<Key, Implementation> {
                         .filter(Objects::nonNull)
                         .map(p -> {
                             if (!p.getPluginType().equals(keyType)) {
-                                p.swapPlugin(this.getImplementation(key));
+                                this.swapAsync(p, published.getImplementation(key));
                             }
 
                             return p;
@@ -168,6 +381,29 @@ public class PluginManager<Key, Implementation> {
         }
     }
 
+    private void swapAsync(final HotSwapPlugin<Implementation> plugin, final Implementation replacement) {
+        // only the upgrade function runs under the lock; migrations run on the executor
+        plugin.swapPluginAsync(replacement, this.migrationExecutor)
+                .whenComplete((ignored, err) -> {
+                    if (err != null) {
+                        LOGGER.error("Unable to migrate plugin: {}", plugin.getPluginType());
+                        LOGGER.debug(err.getMessage(), err);
+                    }
+                });
+    }
+
+    /**
+     * Sets the executor that migrates the state of IncrementalUpgrade plugins
+     * when the PluginManager replaces the implementation of a HotSwapPlugin.
+     * The default is the common ForkJoinPool.
+     *
+     * @param executor the executor.
+     * @since 26.10.18
+     */
+    public void setMigrationExecutor(final Executor executor) {
+        this.migrationExecutor = Objects.requireNonNull(executor);
+    }
+
     /**
      * Constructs a PluginManager without defining a selector. It is recommended
      * to call registerSelector before calling any other method.
@@ -222,40 +458,119 @@ public class PluginManager<Key, Implementation> {
      * @param key the lookup key to use.
      * @param params optional parameters for calling the implementations
      * @return the implementation, if it exists.
+     * @throws PluginException if the key is not registered, no factory could
+     * be found for the implementation or the factory failed.
      * @since 14.12.29
      */
     public Implementation getImplementation(final Key key, final Object... params) {
-        this.checkSelector();
+        return this.checkSelector().getImplementation(key, params);
+    }
 
-        if (!this.implementations.containsKey(key)) {
-            throw new PluginException("Could not find plugin: " + key);
-        }
+    /**
+     * Attempts to retrieve either the implementation of the singleton instance
+     * or a new instance of the object in that order. Unlike getImplementation,
+     * this method does not throw if the key is not registered.
+     *
+     * @param key the lookup key to use.
+     * @param params optional parameters for calling the implementations
+     * @return the implementation. May return an empty Optional if the key is
+     * not registered or the implementation could not be created.
+     * @since 26.10.18
+     */
+    public Optional<Implementation> tryGetImplementation(final Key key, final Object... params) {
+        return this.getFactory(key, params)
+                .map(handle -> invokeFactory(handle, params));
+    }
+
+    /**
+     * Resolves the factory used for creating instances of the implementation
+     * registered to the key. This is a single hash lookup once the factory has
+     * been resolved. The factory is either a singleton getter or a constructor
+     * and should be invoked with the same parameters.
+     *
+     * @param key the lookup key to use.
+     * @param params optional parameters for calling the implementation
+     * @return the factory. May return an empty Optional if the key is not
+     * registered or no factory could be found.
+     * @since 26.10.18
+     */
+    public Optional<MethodHandle> getFactory(final Key key, final Object... params) {
+        return this.checkSelector().getFactory(key, params);
+    }
+
+    /**
+     * Resolves the factory of the implementation registered to the key ahead
+     * of its first use. If initialize is set, the implementation class is
+     * also initialized and any singleton instance is created.
+     *
+     * @param key the lookup key to use.
+     * @param initialize if the class and singleton should be initialized.
+     * @throws PluginException if the key is not registered or the
+     * implementation could not be initialized.
+     * @since 26.10.18
+     */
+    public void warmUp(final Key key, final boolean initialize) {
+        final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+        final Class<? extends Implementation> def = current.implementations.get(key);
 
-        final Class<? extends Implementation> def = this.implementations.get(key);
-        MethodHandle handle = this.constructors.get(def);
+        if (def == null) {
+            throw new PluginException("Could not find plugin: " + key, null, false);
+        }
 
-        if (handle == null) {
-            handle = getSingletonGetter(def, params)
-                    .orElseGet(() -> getFieldGetter(def)
-                            .orElseGet(() -> getConstructorGetter(def, params)
-                                    .get()));
+        final Optional<MethodHandle> factory = current.resolveFactory(def);
 
-            this.constructors.put(def, handle);
+        if (!initialize) {
+            return;
         }
 
         try {
-            if (params.length == 0) {
-                return (Implementation) handle.invoke();
-            } else {
-                return (Implementation) handle.invokeWithArguments(params);
+            Class.forName(def.getName(), true, def.getClassLoader());
+
+            if (factory.isPresent() && isSingleton(def)) {
+                factory.get().invoke();
             }
         } catch (Throwable ex) {
-            LOGGER.error("Unable to get implementation!");
-            LOGGER.debug(ex.getMessage(), ex);            
-            return null;
+            throw new PluginException("Unable to initialize plugin: " + key, ex);
         }
     }
 
+    /**
+     * Warms up every registered plugin in parallel. Each factory is resolved,
+     * each implementation class is initialized and each singleton is created.
+     *
+     * @param executor the executor to run the warm up on.
+     * @return a future that completes with each key that failed to warm up and
+     * its cause.
+     * @since 26.10.18
+     */
+    public CompletableFuture<Map<Key, Throwable>> warmUp(final Executor executor) {
+        return this.warmUp(executor, true, (key, err) -> {
+        });
+    }
+
+    /**
+     * Warms up every registered plugin in parallel. The listener is called as
+     * each key completes with either null or the cause of the failure.
+     *
+     * @param executor the executor to run the warm up on.
+     * @param initialize if the classes and singletons should be initialized.
+     * @param listener the progress listener.
+     * @return a future that completes with each key that failed to warm up and
+     * its cause.
+     * @since 26.10.18
+     */
+    public CompletableFuture<Map<Key, Throwable>> warmUp(
+            final Executor executor,
+            final boolean initialize,
+            final BiConsumer<? super Key, ? super Throwable> listener) {
+
+        return ParallelTasks.forEach(
+                this.listPlugins(),
+                key -> this.warmUp(key, initialize),
+                executor,
+                listener);
+    }
+
     /**
      * Retrieves a plugin implementation that will self-update with
      * replacements.
@@ -265,16 +580,209 @@ public class PluginManager<Key, Implementation> {
      * @since 15.07.28
      */
     public HotSwapPlugin<Implementation> getHotSwapImplementation(final Key key) {
-        final HotSwapPlugin<Implementation> plugin = new HotSwapPlugin(this.getImplementation(key));
-        final List<WeakReference<HotSwapPlugin<Implementation>>> plugins = this.hotswapPlugins.getOrDefault(key, new ArrayList<>());
+        final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+        final HotSwapPlugin<Implementation> plugin = new HotSwapPlugin(current.getImplementation(key));
+
+        synchronized (this.hotswapPlugins) {
+            final RegistryGeneration<Key, Implementation> published = this.generation.get();
 
-        plugins.add(new WeakReference<>(plugin));
+            // a newer generation may have been published without this plugin
+            if (published != current && published.implementations.containsKey(key)
+                    && !plugin.getPluginType().equals(published.implementations.get(key).getTypeName())) {
 
-        this.hotswapPlugins.put(key, plugins);
+                this.swapAsync(plugin, published.getImplementation(key));
+            }
+
+            this.hotswapPlugins.computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(new WeakReference<>(plugin));
+        }
 
         return plugin;
     }
 
+    /**
+     * Retrieves a plugin whose calls are queued and run one at a time on the
+     * executor. The plugin will self-update with replacements.
+     *
+     * @param key the key for the plugin.
+     * @param capacity the maximum number of calls that may be queued.
+     * @param executor the executor that runs the calls.
+     * @return the plugin.
+     * @since 26.10.18
+     */
+    public ActorPlugin<Implementation> getActorImplementation(final Key key, final int capacity, final Executor executor) {
+        return new ActorPlugin<>(this.getHotSwapImplementation(key), capacity, executor);
+    }
+
+    /**
+     * Sets the ExecutionPolicy applied to calls made through
+     * getGuardedImplementation. Any previous policy of the key is replaced and
+     * its threads are stopped.
+     *
+     * @param key the key for the plugin.
+     * @param policy the policy.
+     * @throws PluginException if the key is not registered.
+     * @since 26.10.18
+     */
+    public void setExecutionPolicy(final Key key, final ExecutionPolicy policy) {
+        this.setExecutionPolicy(key, policy, null);
+    }
+
+    /**
+     * Sets the ExecutionPolicy applied to calls made through
+     * getGuardedImplementation. While the circuit breaker of the key is open,
+     * calls are sent to the fallback plugin instead. Any previous policy of
+     * the key is replaced and its threads are stopped.
+     *
+     * @param key the key for the plugin.
+     * @param policy the policy.
+     * @param fallback the key of the fallback plugin. May be null.
+     * @throws PluginException if either key is not registered.
+     * @since 26.10.18
+     */
+    public void setExecutionPolicy(final Key key, final ExecutionPolicy policy, final Key fallback) {
+        final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+
+        if (fallback != null && !current.implementations.containsKey(fallback)) {
+            throw new PluginException("Could not find fallback plugin: " + fallback, null, false);
+        }
+
+        final GuardedPlugin<Implementation> guarded = new GuardedPlugin<>(
+                this.getHotSwapImplementation(key),
+                (fallback == null) ? null : this.getHotSwapImplementation(fallback),
+                policy);
+
+        final GuardedPlugin<Implementation> replaced = this.guardedPlugins.put(key, guarded);
+
+        if (replaced != null) {
+            replaced.close();
+        }
+    }
+
+    /**
+     * Retrieves the plugin whose calls are limited by the ExecutionPolicy of
+     * the key. Every caller of the key shares the same bulkhead and circuit
+     * breaker. The plugin will self-update with replacements.
+     *
+     * @param key the key for the plugin.
+     * @return the plugin.
+     * @throws PluginException if no ExecutionPolicy was set for the key.
+     * @since 26.10.18
+     */
+    public GuardedPlugin<Implementation> getGuardedImplementation(final Key key) {
+        final GuardedPlugin<Implementation> guarded = this.guardedPlugins.get(key);
+
+        if (guarded == null) {
+            throw new PluginException("No execution policy has been set for plugin: " + key, null, false);
+        }
+
+        return guarded;
+    }
+
+    /**
+     * Retrieves a plugin that routes each call to one of the plugins of the
+     * registered WeightedPluginSelector in proportion to their weights. Each
+     * implementation will self-update with replacements and changes to the
+     * weights apply to the next call.
+     *
+     * @return the plugin.
+     * @throws PluginException if no WeightedPluginSelector was registered.
+     * @since 26.10.18
+     */
+    public RoutedPlugin<Implementation> getWeightedImplementation() {
+        final WeightedPluginSelector<Key, Implementation> weights = this.weighted;
+
+        if (weights == null) {
+            throw new PluginException("No weighted selector has been registered!");
+        }
+
+        return this.getRoutedImplementation(weights.getSupported(), weights);
+    }
+
+    /**
+     * Begins a transaction that replaces the implementations of several
+     * plugins at once. Every HotSwapPlugin of the staged keys switches to its
+     * replacement at the same time once the transaction is committed.
+     *
+     * @return the transaction.
+     * @since 26.10.18
+     */
+    public SwapTransaction<Key, Implementation> beginSwap() {
+        return new SwapTransaction<>(this);
+    }
+
+    List<HotSwapPlugin<Implementation>> getHotSwapPlugins(final Key key) {
+        synchronized (this.hotswapPlugins) {
+            return this.hotswapPlugins.getOrDefault(key, Collections.emptyList()).stream()
+                    .map(WeakReference::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    void commitSwap(final SwapTransaction<Key, Implementation> transaction, final Map<Key, Class<? extends Implementation>> staged) {
+        // HotSwapPlugins created during the commit wait for it, so none miss the publish
+        synchronized (this.hotswapPlugins) {
+            final List<HotSwapPlugin<Implementation>> prepared = new ArrayList<>();
+
+            try {
+                for (Map.Entry<Key, Class<? extends Implementation>> entry : staged.entrySet()) {
+                    for (HotSwapPlugin<Implementation> plugin : this.getHotSwapPlugins(entry.getKey())) {
+                        final Implementation impl = getImplementation(entry.getValue());
+
+                        if (impl == null) {
+                            throw new PluginException("Unable to create plugin: " + entry.getKey());
+                        }
+
+                        plugin.stagePlugin(impl, transaction);
+                        prepared.add(plugin);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                prepared.forEach(plugin -> plugin.settlePlugin(transaction));
+                throw ex;
+            }
+
+            transaction.publish();
+            prepared.forEach(plugin -> plugin.settlePlugin(transaction));
+
+            staged.forEach(this.builder::register);
+            this.rebuildSelector();
+        }
+    }
+
+    /**
+     * Retrieves a plugin that routes each call to one of several
+     * implementations. Each implementation will self-update with replacements.
+     *
+     * @param keys the keys of the implementations to route between.
+     * @param policy the policy used for selecting an implementation. The
+     * indices used by the policy match the order of the keys.
+     * @return the plugin.
+     * @since 26.10.18
+     */
+    public RoutedPlugin<Implementation> getRoutedImplementation(final List<Key> keys, final RoutingPolicy policy) {
+        final List<HotSwapPlugin<Implementation>> plugins = keys.stream()
+                .map(this::getHotSwapImplementation)
+                .collect(Collectors.toList());
+
+        return new RoutedPlugin<>(plugins, policy);
+    }
+
+    /**
+     * Retrieves a plugin that routes each call to one of several
+     * implementations and shifts traffic towards the one with the lowest
+     * latency.
+     *
+     * @param keys the keys of the implementations to route between.
+     * @return the plugin.
+     * @since 26.10.18
+     * @see BanditRoutingPolicy
+     */
+    public RoutedPlugin<Implementation> getAdaptiveImplementation(final List<Key> keys) {
+        return this.getRoutedImplementation(keys, new BanditRoutingPolicy(keys.size()));
+    }
+
     /**
      * Reselects the preferred implementation. If the preferred implementation
      * was initialized through a constructor, a new instance of it will be
@@ -284,30 +792,95 @@ public class PluginManager<Key, Implementation> {
      * @since 14.12.29
      */
     public Implementation selectPreferred() {
-        this.checkSelector();
+        final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+        final Optional<Key> pick = this.pickWeighted(current);
 
-        final Implementation impl = this.getImplementation(
-                this.selector.getPreferred());
+        if (pick.isPresent()) {
+            final Implementation impl = current.getImplementation(pick.get());
 
-        this.selectedImpl = impl;
+            current.weightedSelected.put(pick.get(), impl);
+
+            return impl;
+        }
+
+        final Implementation impl = current.getImplementation(current.preferred);
+
+        current.selected = impl;
 
         return impl;
     }
 
+    private Optional<Key> pickWeighted(final RegistryGeneration<Key, Implementation> current) {
+        final WeightedPluginSelector<Key, Implementation> weights = this.weighted;
+
+        final Key override = this.preferredKey;
+
+        // an explicit preferred key overrides the weights
+        if (weights == null || (override != null && current.implementations.containsKey(override))) {
+            return Optional.empty();
+        }
+
+        final Key pick = weights.getPreferred();
+
+        return current.implementations.containsKey(pick)
+                ? Optional.of(pick)
+                : Optional.empty();
+    }
+
     /**
      * Retrieves the preferred implementation. This is defined as the default
      * form of the plugin. This method will always return the same instance of
      * the preferred implementation unless the object was initialized through a
      * constructor and the retained value was reset by calling selectPreferred.
      * Because of that, this method is best suited towards singleton objects.
+     * If a WeightedPluginSelector was registered, the key is picked by weight
+     * on every call and one instance is retained for each key.
      *
      * @return the preferred implementation.
      * @since 14.12.29
      */
     public Implementation getPreferred() {
-        this.checkSelector();
+        final RegistryGeneration<Key, Implementation> current = this.checkSelector();
+        final Optional<Key> pick = this.pickWeighted(current);
+
+        if (pick.isPresent()) {
+            return current.weightedSelected.computeIfAbsent(pick.get(), current::getImplementation);
+        }
+
+        final Implementation impl = current.selected;
+
+        return (impl == null) ? this.selectPreferred() : impl;
+    }
+
+    /**
+     * Overrides the preferred implementation of the PluginSelector. The
+     * override is ignored while the key is not registered. Supplying null will
+     * restore the preferred implementation of the PluginSelector.
+     *
+     * @param key the preferred key or null.
+     * @since 26.10.18
+     */
+    public void setPreferred(final Key key) {
+        this.preferredKey = key;
+        this.markChanged();
+    }
+
+    /**
+     * Runs the calibrator against every supported plugin and sets the fastest
+     * as the preferred implementation.
+     *
+     * @param calibrator the calibrator.
+     * @return the new preferred key. May return empty if no plugin completed
+     * the calibration, in which case the preferred implementation is not
+     * changed.
+     * @since 26.10.18
+     */
+    public Optional<Key> calibratePreferred(final PluginCalibrator<Key, Implementation> calibrator) {
+        final Optional<Key> fastest = calibrator.calibrate(this);
 
-        return (this.selectedImpl == null) ? this.selectPreferred() : this.selectedImpl;
+        fastest.ifPresent(this::setPreferred);
+
+        return fastest;
     }
 
     @Override
@@ -317,10 +890,7 @@ public class PluginManager<Key, Implementation> {
         } else if (other instanceof PluginManager) {
             final PluginManager<?, ?> o = (PluginManager) other;
 
-            this.checkSelector();
-            o.checkSelector();
-
-            return (o.implementations.equals(this.implementations));
+            return (o.checkSelector().implementations.equals(this.checkSelector().implementations));
         }
 
         return false;
@@ -328,54 +898,92 @@ public class PluginManager<Key, Implementation> {
 
     @Override
     public int hashCode() {
-        this.checkSelector();
-
         int hash = 7;
-        hash = 67 * hash + Objects.hashCode(this.implementations);
+        hash = 67 * hash + Objects.hashCode(this.checkSelector().implementations);
         return hash;
     }
 
     @Override
     public String toString() {
-        this.checkSelector();
-
         return String.format("PluginManager supported plugins: %s", this.listPlugins());
     }
 
-    private static <Type> Optional<MethodHandle> getSingletonGetter(final Class<Type> def, final Object... params) {
-        try {
-            if (params.length == 0) {
-                final MethodType mt = MethodType.methodType(def);
-                final MethodHandle getter = MethodHandles.lookup().findStatic(def, "getInstance", mt);
+    /**
+     * Cache of getInstance lookups. Classes without a static getInstance method
+     * are cached as an empty Optional so that the members are only scanned
+     * once per class.
+     */
+    private static final ClassValue<Optional<MethodHandle>> SINGLETON_GETTERS = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(final Class<?> def) {
+            for (Method method : def.getMethods()) {
+                if (method.getName().equals("getInstance")
+                        && method.getParameterCount() == 0
+                        && method.getReturnType() == def
+                        && ReflectionUtil.isStatic(method)) {
+
+                    return ReflectionUtil.unreflect(method);
+                }
+            }
 
-                return Optional.of(getter);
-            } else {
-                return Optional.empty();
+            return Optional.empty();
+        }
+    };
+
+    /**
+     * Cache of INSTANCE lookups. Classes without a static INSTANCE field are
+     * cached as an empty Optional so that the members are only scanned once
+     * per class.
+     */
+    private static final ClassValue<Optional<MethodHandle>> FIELD_GETTERS = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(final Class<?> def) {
+            for (Field field : def.getFields()) {
+                if (field.getName().equals("INSTANCE")
+                        && field.getType() == def
+                        && ReflectionUtil.isStatic(field)) {
+
+                    return ReflectionUtil.unreflectGetter(field);
+                }
             }
-        } catch (IllegalAccessException | NoSuchMethodException | SecurityException ex) {
-            LOGGER.trace(ex.getMessage(), ex);
+
             return Optional.empty();
         }
-    }
+    };
 
-    private static <Type> Optional<MethodHandle> getFieldGetter(final Class<Type> def) {
-        try {
-            final MethodHandle getter = MethodHandles.lookup().findStaticGetter(def, "INSTANCE", def);
+    /**
+     * Cache of the public constructors of each class, so that a class is only
+     * scanned once no matter how many parameter types it is created with.
+     */
+    private static final ClassValue<Constructor<?>[]> CONSTRUCTORS = new ClassValue<Constructor<?>[]>() {
+        @Override
+        protected Constructor<?>[] computeValue(final Class<?> def) {
+            return def.getConstructors();
+        }
+    };
 
-            return Optional.of(getter);
-        } catch (IllegalAccessException | NoSuchFieldException | SecurityException ex) {
-            LOGGER.trace(ex.getMessage(), ex);
+    private static <Type> Optional<MethodHandle> getSingletonGetter(final Class<Type> def, final Object... params) {
+        if (params.length == 0) {
+            return SINGLETON_GETTERS.get(def);
+        } else {
             return Optional.empty();
         }
     }
 
+    private static <Type> Optional<MethodHandle> getFieldGetter(final Class<Type> def) {
+        return FIELD_GETTERS.get(def);
+    }
+
     private static <Type> Optional<MethodHandle> getConstructorGetter(final Class<Type> def, final Object... params) {
         try {
             if (params.length == 0) {
-                final MethodType mt = MethodType.methodType(void.class);
-                final MethodHandle handle = MethodHandles.lookup().findConstructor(def, mt);
+                for (Constructor<?> ctr : CONSTRUCTORS.get(def)) {
+                    if (ctr.getParameterCount() == 0) {
+                        return Optional.of(MethodHandles.lookup().unreflectConstructor(ctr));
+                    }
+                }
 
-                return Optional.of(handle);
+                return Optional.empty();
             } else {
                 final int pLen = params.length;
                 final Class<?>[] cParams = new Class[pLen];
@@ -384,9 +992,8 @@ public class PluginManager<Key, Implementation> {
                     cParams[i] = params[i].getClass();
                 }
 
-                final Constructor[] ctrs = def.getConstructors();
-
-                for (Constructor ctr : ctrs) {
+                // the cached array is shared, so it is only read
+                for (Constructor<?> ctr : CONSTRUCTORS.get(def)) {
                     final Class<?>[] testParams = ctr.getParameterTypes();
 
                     if (testParams.length == pLen) {
@@ -400,10 +1007,7 @@ public class PluginManager<Key, Implementation> {
                         }
 
                         if (isCorrectParams) {
-                            final MethodType mt = MethodType.methodType(void.class, testParams);
-                            final MethodHandle handle = MethodHandles.lookup().findConstructor(def, mt);
-
-                            return Optional.of(handle);
+                            return Optional.of(MethodHandles.lookup().unreflectConstructor(ctr));
                         }
                     }
                 }
@@ -411,12 +1015,57 @@ public class PluginManager<Key, Implementation> {
                 LOGGER.error("Unable to scan constructors for matching definition!");
                 return Optional.empty();
             }
-        } catch (IllegalAccessException | NoSuchMethodException ex) {
+        } catch (IllegalAccessException ex) {
             LOGGER.trace(ex.getMessage(), ex);            
             return Optional.empty();
         }       
     }
 
+    static boolean isSingleton(final Class<?> def) {
+        return SINGLETON_GETTERS.get(def).isPresent() || FIELD_GETTERS.get(def).isPresent();
+    }
+
+    static <Type> Optional<MethodHandle> findFactory(final Class<Type> def, final Object... params) {
+        final Optional<MethodHandle> singleton = getSingletonGetter(def, params);
+
+        if (singleton.isPresent()) {
+            return singleton;
+        }
+
+        final Optional<MethodHandle> field = getFieldGetter(def);
+
+        if (field.isPresent()) {
+            return field;
+        }
+
+        return getConstructorGetter(def, params);
+    }
+
+    static <Type> Type invokeFactory(final MethodHandle handle, final Object... params) {
+        try {
+            return createInstance(handle, params);
+        } catch (PluginException ex) {
+            LOGGER.error("Unable to get implementation!");
+            LOGGER.debug(ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <Type> Type createInstance(final MethodHandle handle, final Object... params) {
+        try {
+            if (params.length == 0) {
+                return (Type) handle.invoke();
+            } else {
+                return (Type) handle.invokeWithArguments(params);
+            }
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new PluginException("Unable to create plugin!", ex);
+        }
+    }
+
     /**
      * This method attempts to retrieve an instance of an object by trying
      * multiple common design patterns. If the object exists as a singleton, it
@@ -436,39 +1085,12 @@ public class PluginManager<Key, Implementation> {
     public static <Type> Type getImplementation(final Class<Type> def, final Object... params) {
         Objects.requireNonNull(def, "Class definition cannot be null!");
 
-        final Optional<MethodHandle> singleton = getSingletonGetter(def, params);
-
-        try {
-            if (singleton.isPresent()) {
-                if (params.length == 0) {
-                    return (Type) singleton.get().invoke();
-                } else {
-                    return (Type) singleton.get().invoke(params);
-                }
-            } else {
-                final Optional<MethodHandle> field = getFieldGetter(def);
-
-                if (field.isPresent()) {
-                    return (Type) field.get().invokeExact();
-                } else {
-                    final Optional<MethodHandle> constructor = getConstructorGetter(def, params);
-
-                    if (constructor.isPresent()) {
-                        if (params.length == 0) {
-                            return (Type) constructor.get().invoke();
-                        } else {
-                            return (Type) constructor.get().invoke(params);
-                        }
-                    } else {
-                        LOGGER.error("Unable to find any type of constructor!");
-                        return null;
-                    }
-                }
-            }
-        } catch (Throwable ex) {                        
-            LOGGER.error("Unable to get implementation!");
-            LOGGER.debug(ex.getMessage(), ex);            
+        final Optional<MethodHandle> factory = findFactory(def, params);
 
+        if (factory.isPresent()) {
+            return invokeFactory(factory.get(), params);
+        } else {
+            LOGGER.error("Unable to find any type of constructor!");
             return null;
         }
     }
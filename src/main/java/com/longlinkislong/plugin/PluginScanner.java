@@ -26,16 +26,26 @@
 package com.longlinkislong.plugin;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -49,12 +59,18 @@ import java.util.stream.StreamSupport;
 public final class PluginScanner {
     private final List<PluginHandler> handlers = new ArrayList<>();
     private final Set<PluginHandler> uniquePlugins = new HashSet<>();
+    private volatile ClassValue<Optional<PluginHandler>> handlerIndex = newHandlerIndex();
     
     private Class<? extends Annotation> pluginAnnotation = Plugin.class;
     
     private Class<? extends Annotation> lookupAnnotation = Plugin.Lookup.class;
     private Class<? extends Annotation> nameAnnotation = Plugin.Name.class;
     private Class<? extends Annotation> descriptionAnnotation = Plugin.Description.class;
+    private Class<? extends Annotation> dependenciesAnnotation = Plugin.Dependencies.class;
+
+    private boolean initializeClasses = true;
+
+    private volatile ClassValue<Map<Class<? extends Annotation>, Field>> metadataIndex = newMetadataIndex();
 
     public void setPluginAnnotation(Class<? extends Annotation> pluginAnnotation) {
         this.pluginAnnotation = pluginAnnotation;
@@ -62,14 +78,44 @@ public final class PluginScanner {
     
     public void setLookupAnnotation(Class<? extends Annotation> lookupAnnotation) {
         this.lookupAnnotation = lookupAnnotation;
+        this.metadataIndex = newMetadataIndex();
     }
 
     public void setNameAnnotation(Class<? extends Annotation> nameAnnotation) {
         this.nameAnnotation = nameAnnotation;
+        this.metadataIndex = newMetadataIndex();
     }
 
     public void setDescriptionAnnotation(Class<? extends Annotation> descriptionAnnotation) {
         this.descriptionAnnotation = descriptionAnnotation;
+        this.metadataIndex = newMetadataIndex();
+    }
+
+    public void setDependenciesAnnotation(Class<? extends Annotation> dependenciesAnnotation) {
+        this.dependenciesAnnotation = dependenciesAnnotation;
+        this.metadataIndex = newMetadataIndex();
+    }
+
+    /**
+     * Sets whether or not scanning is allowed to initialize plugin classes.
+     * Reading metadata from annotated static fields runs the static
+     * initializer of the plugin. If disabled, metadata is only read from the
+     * elements of the Plugin annotation and class initialization is deferred
+     * until the plugin is first instantiated. The default is true.
+     *
+     * @param initializeClasses true to read metadata from static fields.
+     */
+    public void setInitializeClasses(final boolean initializeClasses) {
+        this.initializeClasses = initializeClasses;
+    }
+
+    /**
+     * Checks if scanning is allowed to initialize plugin classes.
+     *
+     * @return true if metadata is read from static fields.
+     */
+    public boolean isInitializeClasses() {
+        return this.initializeClasses;
     }
 
     /**
@@ -93,6 +139,7 @@ public final class PluginScanner {
     public boolean addPluginHandler(final PluginHandler plugin) {
         if (uniquePlugins.add(plugin)) {
             handlers.add(0, plugin);
+            handlerIndex = newHandlerIndex();
 
             return true;
         } else {
@@ -109,6 +156,7 @@ public final class PluginScanner {
     public boolean removePluginHandler(final PluginHandler plugin) {
         if (uniquePlugins.remove(plugin)) {
             handlers.remove(plugin);
+            handlerIndex = newHandlerIndex();
 
             return true;
         } else {
@@ -142,9 +190,124 @@ public final class PluginScanner {
      * @return the PluginHandler if it exists
      */
     public <T> Optional<PluginHandler> getPluginHandler(final Class<T> supportType) {
-        return plugins()
-                .filter(m -> m.supportsType(supportType))
-                .findFirst();
+        return handlerIndex.get(supportType);
+    }
+
+    /**
+     * Creates a new index of class to PluginHandler. The index resolves each
+     * class once against a snapshot of the current handlers. A new index is
+     * created whenever the list of handlers changes.
+     *
+     * @return the index.
+     */
+    private ClassValue<Optional<PluginHandler>> newHandlerIndex() {
+        final List<PluginHandler> snapshot = new ArrayList<>(handlers);
+
+        return new ClassValue<Optional<PluginHandler>>() {
+            @Override
+            protected Optional<PluginHandler> computeValue(final Class<?> type) {
+                return snapshot.stream()
+                        .filter(m -> m.supportsType(type))
+                        .findFirst();
+            }
+        };
+    }
+
+    /**
+     * Creates a new index of class to the static fields that carry the
+     * metadata annotations. The declared fields of each class are scanned
+     * once for all of the annotations and merged with the entry of the
+     * superclass, so a base class shared by many plugins is only scanned
+     * once. A new index is created whenever a metadata annotation changes.
+     *
+     * @return the index.
+     */
+    private ClassValue<Map<Class<? extends Annotation>, Field>> newMetadataIndex() {
+        final List<Class<? extends Annotation>> annotations = new ArrayList<>(4);
+
+        annotations.add(this.lookupAnnotation);
+        annotations.add(this.nameAnnotation);
+        annotations.add(this.descriptionAnnotation);
+        annotations.add(this.dependenciesAnnotation);
+
+        return new ClassValue<Map<Class<? extends Annotation>, Field>>() {
+            @Override
+            protected Map<Class<? extends Annotation>, Field> computeValue(final Class<?> type) {
+                final Class<?> parent = type.getSuperclass();
+                final Map<Class<? extends Annotation>, Field> inherited = (parent == null)
+                        ? Collections.emptyMap()
+                        : this.get(parent);
+                final Map<Class<? extends Annotation>, Field> declared = ReflectionUtil.getDeclaredAnnotatedStaticFields(type, annotations);
+
+                if (declared.isEmpty()) {
+                    return inherited;
+                }
+
+                // fields declared by the class hide the fields of its superclasses
+                final Map<Class<? extends Annotation>, Field> merged = new HashMap<>(inherited);
+
+                merged.putAll(declared);
+
+                return Collections.unmodifiableMap(merged);
+            }
+        };
+    }
+
+    /**
+     * Lists the plugins of every PluginHandler whose class is a subtype of the
+     * capability.
+     *
+     * @param capability the class or interface the plugins must implement.
+     * @return list of each matching PluginDescriptor.
+     */
+    public List<PluginDescriptor> listPlugins(final Class<?> capability) {
+        final List<PluginDescriptor> out = new ArrayList<>();
+
+        for (PluginHandler<?> handler : handlers) {
+            out.addAll(handler.listPlugins(capability));
+        }
+
+        return out;
+    }
+
+    /**
+     * Calls every plugin whose class is a subtype of the capability in
+     * parallel. A new instance of each plugin is created and passed to the
+     * call on the executor. Each call that does not complete within the
+     * timeout is reported as timed out.
+     *
+     * @param <Capability> the class or interface the plugins must implement.
+     * @param <Result> the type returned by the call.
+     * @param capability the class or interface the plugins must implement.
+     * @param call the call to make on each plugin.
+     * @param executor the executor to run the calls on.
+     * @param timeout the time each call is given to complete.
+     * @param unit the unit of the timeout.
+     * @return a future that completes with the result of each call in the
+     * order the calls completed.
+     */
+    public <Capability, Result> CompletableFuture<List<BroadcastResult<Result>>> broadcast(
+            final Class<Capability> capability,
+            final Function<? super Capability, ? extends Result> call,
+            final Executor executor,
+            final long timeout,
+            final TimeUnit unit) {
+
+        final Map<String, PluginHandler<?>> owners = new LinkedHashMap<>();
+
+        for (PluginHandler<?> handler : handlers) {
+            for (PluginDescriptor plugin : handler.listPlugins(capability)) {
+                owners.putIfAbsent(plugin.lookup, handler);
+            }
+        }
+
+        return ParallelTasks.broadcast(
+                owners.keySet(),
+                id -> call.apply(capability.cast(owners.get(id).newInstance(id)
+                        .orElseThrow(() -> new PluginException("Unable to create plugin: " + id)))),
+                executor,
+                timeout,
+                unit);
     }
 
     /**
@@ -174,6 +337,56 @@ public final class PluginScanner {
                 .flatMap(m -> m.newInstance(id, params));
     }
 
+    /**
+     * Warms up every plugin registered with any PluginHandler in parallel. This
+     * is the same as calling [code]warmUp(executor, true, (id, err) -> {})[/code]
+     *
+     * @param executor the executor to run the warm up on.
+     * @return a future that completes with each plugin that failed to warm up
+     * and its cause.
+     */
+    public CompletableFuture<Map<String, Throwable>> warmUp(final Executor executor) {
+        return warmUp(executor, true, (id, err) -> {
+        });
+    }
+
+    /**
+     * Warms up every plugin registered with any PluginHandler in parallel.
+     * Each plugin's factory is resolved and, if requested, its class and
+     * singleton instance are initialized. Plugins are warmed up after the
+     * plugins listed in their dependencies; plugins whose dependencies failed
+     * or are not registered are reported as failed.
+     *
+     * @param executor the executor to run the warm up on.
+     * @param initialize if the classes and singletons should be initialized.
+     * @param listener the progress listener. It is called as each plugin
+     * completes with either null or the cause of the failure.
+     * @return a future that completes with each plugin that failed to warm up
+     * and its cause.
+     * @throws PluginException if the plugin dependencies contain a cycle.
+     */
+    public CompletableFuture<Map<String, Throwable>> warmUp(
+            final Executor executor,
+            final boolean initialize,
+            final BiConsumer<? super String, ? super Throwable> listener) {
+
+        final Map<String, PluginHandler<?>> owners = new LinkedHashMap<>();
+        final PluginInitScheduler<String> scheduler = new PluginInitScheduler<>();
+
+        for (PluginHandler<?> handler : handlers) {
+            for (PluginDescriptor plugin : handler.listPlugins()) {
+                if (owners.putIfAbsent(plugin.lookup, handler) == null) {
+                    scheduler.add(plugin.lookup, plugin.dependencies);
+                }
+            }
+        }
+
+        return scheduler.run(
+                executor,
+                id -> owners.get(id).warmUp(id, initialize),
+                listener);
+    }
+
     /**
      * Scans an array of Classes for plugins. This is the same as calling
      * [code]scan(plugins, 0)[/code]
@@ -259,30 +472,97 @@ public final class PluginScanner {
                 .filter(this::process);
     }
 
-    private PluginDescriptor descriptorFromClass(Class<?> clazz) {
-        return Arrays.stream(clazz.getFields())
-                .filter(ReflectionUtil::isStaticFinal)
-                .reduce(new PluginDescriptor(clazz), (desc, field) -> {
-                    
-                    final Optional<String> getLookup = ReflectionUtil.getAnnotatedStaticField(clazz, lookupAnnotation);
-                    if (getLookup.isPresent()) {
-                        desc = desc.withLookup(getLookup.get());
-                    }
-                    final Optional<String> getName = ReflectionUtil.getAnnotatedStaticField(clazz, nameAnnotation);
-                    if (getName.isPresent()) {
-                        desc = desc.withLookup(getName.get());
-                    }
-                    final Optional<String> getDesc = ReflectionUtil.getAnnotatedStaticField(clazz, descriptionAnnotation);
-                    if (getDesc.isPresent()) {
-                        desc = desc.withLookup(getDesc.get());
+    private PluginDescriptor descriptorFromClass(final Class<?> clazz) {
+        PluginDescriptor desc = new PluginDescriptor(clazz);
+
+        // annotation elements never initialize the class
+        final Annotation anno = clazz.getAnnotation(pluginAnnotation);
+
+        if (anno instanceof Plugin) {
+            final Plugin plugin = (Plugin) anno;
+
+            if (!plugin.lookup().isEmpty()) {
+                desc = desc.withLookup(plugin.lookup());
+            }
+
+            if (!plugin.name().isEmpty()) {
+                desc = desc.withName(plugin.name());
+            }
+
+            if (!plugin.description().isEmpty()) {
+                desc = desc.withDescription(plugin.description());
+            }
+
+            if (plugin.dependencies().length > 0) {
+                desc = desc.withDependencies(Arrays.asList(plugin.dependencies()));
+            }
+        }
+
+        if (!this.initializeClasses) {
+            return desc;
+        }
+
+        final Map<Class<? extends Annotation>, Field> fields = this.metadataIndex.get(clazz);
+
+        final Optional<String> lookup = readMetadata(fields, lookupAnnotation);
+        if (lookup.isPresent()) {
+            desc = desc.withLookup(lookup.get());
+        }
+
+        final Optional<String> name = readMetadata(fields, nameAnnotation);
+        if (name.isPresent()) {
+            desc = desc.withName(name.get());
+        }
+
+        final Optional<String> description = readMetadata(fields, descriptionAnnotation);
+        if (description.isPresent()) {
+            desc = desc.withDescription(description.get());
+        }
+
+        final Optional<List<String>> dependencies = readDependencies(fields, dependenciesAnnotation);
+        if (dependencies.isPresent()) {
+            desc = desc.withDependencies(dependencies.get());
+        }
+
+        return desc;
+    }
+
+    private static Optional<String> readMetadata(final Map<Class<? extends Annotation>, Field> fields, final Class<? extends Annotation> annotation) {
+        return Optional.ofNullable(fields.get(annotation))
+                .flatMap(ReflectionUtil::getStaticObjectField)
+                .map(Object::toString);
+    }
+
+    private static Optional<List<String>> readDependencies(final Map<Class<? extends Annotation>, Field> fields, final Class<? extends Annotation> annotation) {
+        return Optional.ofNullable(fields.get(annotation))
+                .flatMap(ReflectionUtil::getStaticObjectField)
+                .map(value -> {
+                    final Stream<?> values;
+
+                    if (value instanceof Object[]) {
+                        values = Arrays.stream((Object[]) value);
+                    } else if (value instanceof Collection) {
+                        values = ((Collection<?>) value).stream();
+                    } else {
+                        values = Stream.of(value);
                     }
 
-                    return desc;
-                }, PluginDescriptor::combine);
+                    return values.map(Object::toString).collect(Collectors.toList());
+                });
     }
 
     private boolean process(final PluginDescriptor plugin) {
+        final Optional<PluginHandler> routed = handlerIndex.get(plugin.clazz);
+
+        if (!routed.isPresent()) {
+            return false;
+        } else if (routed.get().register(plugin)) {
+            return true;
+        }
+
+        // the first supporting handler declined; offer it to the rest
         return this.handlers.stream()
+                .filter(h -> h != routed.get())
                 .filter(h -> h.register(plugin))
                 .findFirst()
                 .isPresent();
@@ -26,6 +26,8 @@
 package com.longlinkislong.plugin;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -117,25 +119,49 @@ public interface PluginSelector<Key, Implementation> {
             final PluginSelector<Key, Implementation> first,
             final PluginSelector<Key, Implementation> second) {
 
-        final List<Key> allKeys = new ArrayList<>();
+        return join(Arrays.asList(first, second));
+    }
 
-        allKeys.addAll(first.getSupported());
-        allKeys.addAll(second.getSupported());
+    /**
+     * Constructs a new PluginSelector from any number of PluginSelectors.
+     * Selectors that were themselves created by join are flattened, so
+     * composing many selectors does not create a deep chain. Keys are listed
+     * once in the order they first appear. If multiple selectors register the
+     * same key, the implementation from the last selector is used.
+     *
+     * @param <Key> the key object
+     * @param <Implementation> the implementation
+     * @param selectors the plugin selectors
+     * @return the combined selectors
+     * @since 26.10.18
+     */
+    @SafeVarargs
+    public static <Key, Implementation> PluginSelector<Key, Implementation> join(
+            final PluginSelector<Key, Implementation>... selectors) {
 
-        return new PluginSelector<Key, Implementation>() {
+        // copied element by element; the array itself is never passed on
+        final List<PluginSelector<Key, Implementation>> list = new ArrayList<>(selectors.length);
 
-            @Override
-            public List<Key> getSupported() {
+        for (PluginSelector<Key, Implementation> selector : selectors) {
+            list.add(selector);
+        }
 
-                return Collections.unmodifiableList(allKeys);
-            }
+        return join(list);
+    }
 
-            @Override
-            public void registerImplements(Map<Key, Class<? extends Implementation>> pluginImpl) {
-                first.registerImplements(pluginImpl);
-                second.registerImplements(pluginImpl);
-            }
+    /**
+     * Constructs a new PluginSelector from a collection of PluginSelectors.
+     *
+     * @param <Key> the key object
+     * @param <Implementation> the implementation
+     * @param selectors the plugin selectors
+     * @return the combined selectors
+     * @since 26.10.18
+     * @see #join(com.longlinkislong.plugin.PluginSelector...)
+     */
+    public static <Key, Implementation> PluginSelector<Key, Implementation> join(
+            final Collection<? extends PluginSelector<Key, Implementation>> selectors) {
 
-        };
+        return new CompositePluginSelector<>(selectors);
     }       
 }
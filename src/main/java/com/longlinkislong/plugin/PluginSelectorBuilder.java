@@ -25,17 +25,21 @@
  */
 package com.longlinkislong.plugin;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * The PluginSelectorBuilder is a helper class that handles creating a generic
- * PluginSelector.
+ * PluginSelector. The registered plugins are held in a persistent map, so
+ * every PluginSelector created by getSelector is an immutable snapshot that
+ * shares its structure with the builder and with previous snapshots.
  *
  * @author zmichaels
  * @param <KeyT> the KeyType to use
@@ -44,8 +48,8 @@ import java.util.Optional;
  */
 public class PluginSelectorBuilder<KeyT, ClassT> {
 
-    private final List<KeyT> keys = new ArrayList<>();
-    private final Map<KeyT, Class<? extends ClassT>> pluginMap = new HashMap<>();
+    // writers swap the plugins with updateAndGet so concurrent updates are not lost
+    private final AtomicReference<Plugins<KeyT, ClassT>> plugins = new AtomicReference<>(Plugins.empty());
     private Optional<Class<? extends ClassT>> preferred = Optional.empty();
 
     /**
@@ -60,10 +64,7 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
             final KeyT key,
             final Class<? extends ClassT> plugin) {
 
-        if (!this.pluginMap.containsKey(key)) {
-            this.keys.add(key);
-        }
-        this.pluginMap.put(key, plugin);
+        this.plugins.updateAndGet(current -> current.list(key, plugin));
 
         return this;
     }
@@ -92,7 +93,7 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
      * @since 15.01.12
      */
     public Class<? extends ClassT> getPreferred() {
-        return this.preferred.orElse(this.pluginMap.get(this.keys.get(0)));
+        return this.preferred.orElseGet(() -> this.plugins.get().listed.first());
     }
 
     /**
@@ -108,11 +109,56 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
     public PluginSelectorBuilder<KeyT, ClassT> join(
             final PluginSelector<KeyT, ClassT> otherSelector) {
 
-        otherSelector.getSupported().stream()
-                .filter((key) -> (!pluginMap.containsKey(key)))
-                .forEach(this.keys::add);
+        if (otherSelector instanceof Snapshot) {
+            final Plugins<KeyT, ClassT> other = ((Snapshot<KeyT, ClassT>) otherSelector).plugins;
+
+            this.plugins.updateAndGet(current -> {
+                Plugins<KeyT, ClassT> updated = current;
+
+                for (KeyT key : other.listed.keys()) {
+                    final Class<? extends ClassT> impl = other.listed.get(key);
+
+                    if (impl != null) {
+                        updated = updated.list(key, impl);
+                    } else if (!updated.listed.containsKey(key)) {
+                        updated = updated.list(key, updated.unlisted.get(key));
+                    }
+                }
+
+                for (KeyT key : other.unlisted.keys()) {
+                    updated = updated.implement(key, other.unlisted.get(key));
+                }
+
+                return updated;
+            });
+        } else {
+            final Map<KeyT, Class<? extends ClassT>> impls = new HashMap<>();
+            final List<KeyT> supported = otherSelector.getSupported();
+            final Set<KeyT> listed = new HashSet<>(supported);
+
+            otherSelector.registerImplements(impls);
 
-        otherSelector.registerImplements(pluginMap);
+            // the update may be retried, so it must not modify impls
+            this.plugins.updateAndGet(current -> {
+                Plugins<KeyT, ClassT> updated = current;
+
+                for (KeyT key : supported) {
+                    if (impls.containsKey(key)) {
+                        updated = updated.list(key, impls.get(key));
+                    } else if (!updated.listed.containsKey(key)) {
+                        updated = updated.list(key, updated.unlisted.get(key));
+                    }
+                }
+
+                for (Map.Entry<KeyT, Class<? extends ClassT>> entry : impls.entrySet()) {
+                    if (!listed.contains(entry.getKey())) {
+                        updated = updated.implement(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                return updated;
+            });
+        }
 
         return this;
     }
@@ -188,40 +234,26 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
      * @since 15.01.12
      */
     public PluginSelectorBuilder<KeyT, ClassT> remove(final KeyT key) {
-        if (this.pluginMap.containsKey(key)) {
-            this.keys.remove(key);
-            this.pluginMap.remove(key);
-        }
+        this.plugins.updateAndGet(current -> current.remove(key));
 
         return this;
     }
 
     /**
-     * Creates a new PluginSelector that reflects the plugins registered.
+     * Creates a new PluginSelector that reflects the plugins registered. The
+     * PluginSelector is an immutable snapshot and is not affected by later
+     * changes to this PluginSelectorBuilder.
      *
      * @return the PluginSelector
      * @since 15.01.12
      */
     public PluginSelector<KeyT, ClassT> getSelector() {
-        final List<KeyT> readOnlyNames = Collections.unmodifiableList(keys);
-
-        return new PluginSelector<KeyT, ClassT>() {
-
-            @Override
-            public List<KeyT> getSupported() {
-                return readOnlyNames;
-            }
-
-            @Override
-            public void registerImplements(Map<KeyT, Class<? extends ClassT>> pluginImpl) {
-                pluginImpl.putAll(pluginMap);
-            }
-        };
+        return new Snapshot<>(this.plugins.get());
     }
 
     @Override
     public String toString() {
-        return String.format("PluginSelectorBuilder plugins: %s", this.keys);
+        return String.format("PluginSelectorBuilder plugins: %s", this.plugins.get().listed.keys());
     }
 
     @Override
@@ -231,8 +263,7 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
         } else if (other instanceof PluginSelectorBuilder) {
             final PluginSelectorBuilder<?, ?> o = (PluginSelectorBuilder) other;
 
-            return (o.keys.equals(this.keys)
-                    && (o.pluginMap.equals(this.pluginMap))
+            return (o.plugins.get().equals(this.plugins.get())
                     && (o.preferred.equals(this.preferred)));
         }
         return false;
@@ -241,9 +272,101 @@ public class PluginSelectorBuilder<KeyT, ClassT> {
     @Override
     public int hashCode() {
         int hash = 3;
-        hash = 83 * hash + Objects.hashCode(this.keys);
-        hash = 83 * hash + Objects.hashCode(this.pluginMap);
+        hash = 83 * hash + Objects.hashCode(this.plugins.get());
         hash = 83 * hash + Objects.hashCode(this.preferred);
         return hash;
     }
+
+    /**
+     * The plugins of a PluginSelectorBuilder. Listed plugins are returned by
+     * getSupported. Unlisted plugins are implementations that a joined
+     * PluginSelector registered without listing them as supported; they are
+     * registered as implementations but never listed. A key is never both
+     * listed and unlisted.
+     */
+    private static final class Plugins<KeyT, ClassT> {
+
+        private static final Plugins<?, ?> EMPTY = new Plugins<>(PersistentOrderedMap.empty(), PersistentOrderedMap.empty());
+
+        private final PersistentOrderedMap<KeyT, Class<? extends ClassT>> listed;
+        private final PersistentOrderedMap<KeyT, Class<? extends ClassT>> unlisted;
+
+        private Plugins(
+                final PersistentOrderedMap<KeyT, Class<? extends ClassT>> listed,
+                final PersistentOrderedMap<KeyT, Class<? extends ClassT>> unlisted) {
+
+            this.listed = listed;
+            this.unlisted = unlisted;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <KeyT, ClassT> Plugins<KeyT, ClassT> empty() {
+            return (Plugins<KeyT, ClassT>) EMPTY;
+        }
+
+        private Plugins<KeyT, ClassT> with(
+                final PersistentOrderedMap<KeyT, Class<? extends ClassT>> listed,
+                final PersistentOrderedMap<KeyT, Class<? extends ClassT>> unlisted) {
+
+            return (listed == this.listed && unlisted == this.unlisted) ? this : new Plugins<>(listed, unlisted);
+        }
+
+        Plugins<KeyT, ClassT> list(final KeyT key, final Class<? extends ClassT> impl) {
+            return this.with(this.listed.put(key, impl), this.unlisted.remove(key));
+        }
+
+        Plugins<KeyT, ClassT> implement(final KeyT key, final Class<? extends ClassT> impl) {
+            return this.listed.containsKey(key)
+                    ? this.with(this.listed.put(key, impl), this.unlisted)
+                    : this.with(this.listed, this.unlisted.put(key, impl));
+        }
+
+        Plugins<KeyT, ClassT> remove(final KeyT key) {
+            return this.with(this.listed.remove(key), this.unlisted.remove(key));
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (other == this) {
+                return true;
+            } else if (other instanceof Plugins) {
+                final Plugins<?, ?> o = (Plugins<?, ?>) other;
+
+                return o.listed.equals(this.listed) && o.unlisted.equals(this.unlisted);
+            }
+
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return 83 * this.listed.hashCode() + this.unlisted.hashCode();
+        }
+    }
+
+    private static final class Snapshot<KeyT, ClassT> implements PluginSelector<KeyT, ClassT> {
+
+        private final Plugins<KeyT, ClassT> plugins;
+
+        Snapshot(final Plugins<KeyT, ClassT> plugins) {
+            this.plugins = plugins;
+        }
+
+        @Override
+        public List<KeyT> getSupported() {
+            return this.plugins.listed.keys();
+        }
+
+        @Override
+        public void registerImplements(final Map<KeyT, Class<? extends ClassT>> pluginImpl) {
+            final BiConsumer<KeyT, Class<? extends ClassT>> register = (key, impl) -> {
+                if (impl != null) {
+                    pluginImpl.put(key, impl);
+                }
+            };
+
+            this.plugins.unlisted.forEach(register);
+            this.plugins.listed.forEach(register);
+        }
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Samples calls made through a HotSwapPlugin. Each thread counts down a
+ * random number of calls between samples so that on average one in every
+ * sampleRate calls is traced. Unsampled calls only decrement the counter.
+ * Sampled calls are written to a fixed size ring buffer without locking;
+ * the oldest traces are overwritten once the buffer is full.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ * @see HotSwapPlugin#setTracer(PluginTracer)
+ */
+public final class PluginTracer {
+
+    private final int sampleRate;
+    private final AtomicReferenceArray<Trace> traces;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean captureArguments = false;
+    private final ThreadLocal<int[]> countdown;
+
+    /**
+     * Constructs a new PluginTracer.
+     *
+     * @param sampleRate the average number of calls per sample. 1 traces
+     * every call.
+     * @param capacity the number of traces retained. Rounded up to the next
+     * power of 2.
+     * @since 26.10.18
+     */
+    public PluginTracer(final int sampleRate, final int capacity) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1!");
+        } else if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+
+        this.sampleRate = sampleRate;
+        this.traces = new AtomicReferenceArray<>(Math.max(size, 1));
+        this.mask = this.traces.length() - 1;
+        this.countdown = ThreadLocal.withInitial(() -> new int[]{this.nextInterval()});
+    }
+
+    /**
+     * Sets if the arguments of sampled calls are recorded. The arguments are
+     * recorded as a String.
+     *
+     * @param captureArguments if arguments are recorded.
+     * @since 26.10.18
+     */
+    public void setCaptureArguments(final boolean captureArguments) {
+        this.captureArguments = captureArguments;
+    }
+
+    private int nextInterval() {
+        return (this.sampleRate == 1) ? 1 : ThreadLocalRandom.current().nextInt(1, 2 * this.sampleRate);
+    }
+
+    /**
+     * Checks if the current call should be traced.
+     *
+     * @return true if the call is sampled.
+     */
+    boolean sample() {
+        final int[] remaining = this.countdown.get();
+
+        if (--remaining[0] > 0) {
+            return false;
+        }
+
+        remaining[0] = this.nextInterval();
+        return true;
+    }
+
+    /**
+     * Records a sampled call.
+     *
+     * @param method the name of the method.
+     * @param pluginType the class of the plugin.
+     * @param nanos the duration of the call.
+     * @param failure the exception thrown by the call or null.
+     * @param params the arguments of the call.
+     */
+    void record(final String method, final Class<?> pluginType, final long nanos, final Throwable failure, final Object[] params) {
+        final long seq = this.sequence.getAndIncrement();
+        final Trace trace = new Trace(
+                seq,
+                System.currentTimeMillis(),
+                method,
+                pluginType.getTypeName(),
+                nanos,
+                (failure == null) ? null : failure.toString(),
+                this.captureArguments ? Arrays.deepToString(params) : null);
+
+        this.traces.set((int) (seq & this.mask), trace);
+    }
+
+    /**
+     * Removes every retained trace.
+     *
+     * @return the traces in the order they were recorded.
+     * @since 26.10.18
+     */
+    public List<Trace> drain() {
+        final List<Trace> out = new ArrayList<>();
+
+        for (int i = 0; i < this.traces.length(); i++) {
+            final Trace trace = this.traces.getAndSet(i, null);
+
+            if (trace != null) {
+                out.add(trace);
+            }
+        }
+
+        out.sort(Comparator.comparingLong(trace -> trace.sequence));
+
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Removes every retained trace and appends them to a file. Each trace is
+     * written as a single tab separated line.
+     *
+     * @param file the file to append to.
+     * @return the number of traces written.
+     * @throws IOException if the file could not be written.
+     * @since 26.10.18
+     */
+    public int dump(final Path file) throws IOException {
+        final List<Trace> drained = this.drain();
+
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+
+            for (Trace trace : drained) {
+                out.write(trace.toString());
+                out.newLine();
+            }
+        }
+
+        return drained.size();
+    }
+
+    /**
+     * A single sampled call.
+     *
+     * @since 26.10.18
+     */
+    public static final class Trace {
+
+        private final long sequence;
+        /**
+         * The time the call completed in milliseconds since the epoch.
+         */
+        public final long timestamp;
+        /**
+         * The name of the method.
+         */
+        public final String method;
+        /**
+         * The Type Name of the plugin that handled the call.
+         */
+        public final String pluginType;
+        /**
+         * The duration of the call in nanoseconds.
+         */
+        public final long durationNanos;
+        /**
+         * The exception thrown by the call or null if it succeeded.
+         */
+        public final String failure;
+        /**
+         * The arguments of the call or null if arguments were not captured.
+         */
+        public final String arguments;
+
+        Trace(final long sequence, final long timestamp, final String method, final String pluginType,
+                final long durationNanos, final String failure, final String arguments) {
+
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.method = method;
+            this.pluginType = pluginType;
+            this.durationNanos = durationNanos;
+            this.failure = failure;
+            this.arguments = arguments;
+        }
+
+        /**
+         * Checks if the call threw an exception.
+         *
+         * @return true if the call failed.
+         * @since 26.10.18
+         */
+        public boolean isFailed() {
+            return this.failure != null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d\t%s\t%s\t%d\t%s\t%s",
+                    this.timestamp,
+                    this.method,
+                    this.pluginType,
+                    this.durationNanos,
+                    this.isFailed() ? this.failure : "ok",
+                    (this.arguments == null) ? "" : this.arguments);
+        }
+    }
+}
@@ -12,10 +12,16 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import org.slf4j.Logger;
@@ -201,7 +207,7 @@ public final class ReflectionUtil {
      */
     public static <ValueT> Optional<ValueT> getStaticObjectField(final Field field) {
         try {
-            return Optional.of((ValueT) field.get(null));
+            return Optional.ofNullable((ValueT) field.get(null));
         } catch (IllegalArgumentException | IllegalAccessException ex) {
             LOGGER.debug(ex.getMessage(), ex);
             return Optional.empty();
@@ -416,22 +422,147 @@ public final class ReflectionUtil {
         }
     }
     
-    public static <T> Optional<T> getAnnotatedStaticField(Class clazz, Class<? extends Annotation> annotation){
-        do{
-            for(Field field:clazz.getDeclaredFields()){
-                if(field.isAnnotationPresent(annotation)){
-                    if(!field.isAccessible()){
-                        field.setAccessible(true);
-                    }
-                    try{
-                        return Optional.of((T) field.get(null));
-                    }catch(IllegalArgumentException | IllegalAccessException ex){
-                        throw new Error(ex);
+    /**
+     * Cache of all supertypes per class. Each entry is built from the entries
+     * of the direct supertypes.
+     */
+    private static final ClassValue<Set<Class<?>>> SUPERTYPES = new ClassValue<Set<Class<?>>>() {
+        @Override
+        protected Set<Class<?>> computeValue(final Class<?> clazz) {
+            final Set<Class<?>> out = new LinkedHashSet<>();
+
+            out.add(clazz);
+
+            if (clazz.getSuperclass() != null) {
+                out.addAll(this.get(clazz.getSuperclass()));
+            }
+
+            for (Class<?> iface : clazz.getInterfaces()) {
+                out.addAll(this.get(iface));
+            }
+
+            return Collections.unmodifiableSet(out);
+        }
+    };
+
+    /**
+     * Retrieves the class, all of its superclasses and all interfaces it
+     * implements directly or indirectly. The result is cached per class.
+     *
+     * @param clazz the class.
+     * @return unmodifiable set of supertypes including the class itself.
+     */
+    public static Set<Class<?>> getSupertypes(final Class<?> clazz) {
+        return SUPERTYPES.get(clazz);
+    }
+
+    /**
+     * Cache of annotated static fields indexed by annotation type and then by
+     * class. Only the annotation types that are asked for are indexed, so
+     * only the fields that carry them are made accessible. A class without
+     * the annotation reuses the entry of its superclass, so a base class
+     * shared by many plugins is only reflected once per annotation.
+     */
+    private static final ClassValue<ClassValue<Optional<Field>>> ANNOTATED_STATIC_FIELDS = new ClassValue<ClassValue<Optional<Field>>>() {
+        @Override
+        protected ClassValue<Optional<Field>> computeValue(final Class<?> annotationType) {
+            final Class<? extends Annotation> annotation = annotationType.asSubclass(Annotation.class);
+
+            return new ClassValue<Optional<Field>>() {
+                @Override
+                protected Optional<Field> computeValue(final Class<?> clazz) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        if (isStatic(field) && field.isAnnotationPresent(annotation)) {
+                            return tryOpen(field);
+                        }
                     }
+
+                    final Class<?> parent = clazz.getSuperclass();
+
+                    return (parent == null) ? Optional.empty() : this.get(parent);
+                }
+            };
+        }
+    };
+
+    private static Optional<Field> tryOpen(final Field field) {
+        try {
+            return Optional.of(setAccessible(field));
+        } catch (RuntimeException ex) {
+            LOGGER.error("Unable to access field: {}", field);
+            LOGGER.debug(ex.getMessage(), ex);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Retrieves the static fields declared by the class that carry any of the
+     * annotations. The declared fields are scanned once for all of the
+     * annotations and the first field wins for each annotation. Only the
+     * returned fields are set as accessible. Superclasses are not searched.
+     *
+     * @param clazz the class.
+     * @param annotations the annotations.
+     * @return the fields indexed by annotation. A field that can not be made
+     * accessible is left out.
+     */
+    public static Map<Class<? extends Annotation>, Field> getDeclaredAnnotatedStaticFields(
+            final Class<?> clazz,
+            final Collection<Class<? extends Annotation>> annotations) {
+
+        final Map<Class<? extends Annotation>, Field> out = new HashMap<>();
+
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!isStatic(field)) {
+                continue;
+            }
+
+            for (Class<? extends Annotation> annotation : annotations) {
+                if (!out.containsKey(annotation) && field.isAnnotationPresent(annotation)) {
+                    tryOpen(field).ifPresent(opened -> out.put(annotation, opened));
                 }
             }
-            clazz = clazz.getSuperclass();
-        }while(clazz != null);
-        return Optional.empty();
+        }
+
+        return out;
+    }
+
+    /**
+     * Retrieves the static field of the class or its superclasses annotated
+     * with the given annotation. The field declared closest to the class
+     * wins. The returned field is set as accessible. The result is cached per
+     * annotation and class.
+     *
+     * @param clazz the class.
+     * @param annotation the annotation.
+     * @return the field. May return an empty Optional if no static field has
+     * the annotation.
+     */
+    public static Optional<Field> findAnnotatedStaticField(final Class<?> clazz, final Class<? extends Annotation> annotation) {
+        return ANNOTATED_STATIC_FIELDS.get(annotation).get(clazz);
+    }
+
+    /**
+     * Retrieves the value of the static field annotated with the given
+     * annotation. The class and all of its superclasses are searched.
+     *
+     * @param <T> the value type.
+     * @param clazz the class.
+     * @param annotation the annotation.
+     * @return the value wrapped in an Optional. May return an empty Optional if
+     * no static field has the annotation.
+     */
+    public static <T> Optional<T> getAnnotatedStaticField(Class clazz, Class<? extends Annotation> annotation){
+        final Optional<Field> field = findAnnotatedStaticField(clazz, annotation);
+
+        if (!field.isPresent()) {
+            return Optional.empty();
+        }
+
+        try{
+            return Optional.ofNullable((T) field.get().get(null));
+        }catch(IllegalArgumentException | IllegalAccessException ex){
+            throw new Error(ex);
+        }
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable generation of the registry held by a PluginManager. Each
+ * generation captures the keys, the implementations and the preferred key at
+ * one point in time. A generation is retired once a newer generation is
+ * published and is reclaimed once it is no longer pinned by any RegistryView.
+ *
+ * @author zmichaels
+ * @param <Key> Lookup for plugins
+ * @param <Implementation> The plugin base type.
+ */
+final class RegistryGeneration<Key, Implementation> {
+
+    final long id;
+    // the change count of the PluginManager that the generation reflects
+    final long changes;
+    final List<Key> keys;
+    final Map<Key, Class<? extends Implementation>> implementations;
+    final Key preferred;
+    volatile Implementation selected;
+    final Map<Key, Implementation> weightedSelected = new ConcurrentHashMap<>();
+
+    // shared by every generation of the PluginManager
+    private final Map<List<Class<?>>, MethodHandle> factories;
+    // -1 once the generation has been reclaimed
+    private final AtomicInteger pins = new AtomicInteger();
+    private volatile boolean retired;
+
+    RegistryGeneration(
+            final long id,
+            final long changes,
+            final PluginSelector<Key, Implementation> selector,
+            final Key preferredKey,
+            final Map<List<Class<?>>, MethodHandle> factories) {
+
+        final Map<Key, Class<? extends Implementation>> impls = new HashMap<>();
+
+        selector.registerImplements(impls);
+
+        this.id = id;
+        this.changes = changes;
+        this.factories = factories;
+        this.implementations = Collections.unmodifiableMap(impls);
+        this.keys = Collections.unmodifiableList(new ArrayList<>(selector.getSupported()));
+
+        if (preferredKey != null && impls.containsKey(preferredKey)) {
+            this.preferred = preferredKey;
+        } else {
+            this.preferred = this.keys.isEmpty() ? null : selector.getPreferred();
+        }
+    }
+
+    Implementation getImplementation(final Key key, final Object... params) {
+        final Class<? extends Implementation> def = this.implementations.get(key);
+
+        if (def == null) {
+            throw new PluginException("Could not find plugin: " + key, null, false);
+        }
+
+        final MethodHandle handle = this.resolveFactory(def, params)
+                .orElseThrow(() -> new PluginException("Unable to find any type of constructor for plugin: " + key, null, false));
+
+        return PluginManager.createInstance(handle, params);
+    }
+
+    Optional<MethodHandle> getFactory(final Key key, final Object... params) {
+        final Class<? extends Implementation> def = this.implementations.get(key);
+
+        if (def == null) {
+            return Optional.empty();
+        }
+
+        return this.resolveFactory(def, params);
+    }
+
+    Optional<MethodHandle> resolveFactory(final Class<? extends Implementation> def, final Object... params) {
+        final List<Class<?>> signature = signature(def, params);
+        final MethodHandle handle = this.factories.get(signature);
+
+        if (handle != null) {
+            return Optional.of(handle);
+        }
+
+        final Optional<MethodHandle> factory = PluginManager.findFactory(def, params);
+
+        // a retired generation may hold classes that were already pruned
+        if (!this.retired) {
+            factory.ifPresent(found -> this.factories.put(signature, found));
+        }
+
+        return factory;
+    }
+
+    /**
+     * Builds the cache key of a factory. Overloaded constructors with the
+     * same number of parameters are told apart by the argument types.
+     *
+     * @param def the implementation class.
+     * @param params the parameters the factory is called with.
+     * @return the class followed by the type of each argument. A null
+     * argument is stored as null.
+     */
+    static List<Class<?>> signature(final Class<?> def, final Object... params) {
+        final Class<?>[] signature = new Class<?>[params.length + 1];
+
+        signature[0] = def;
+
+        for (int i = 0; i < params.length; i++) {
+            signature[i + 1] = (params[i] == null) ? null : params[i].getClass();
+        }
+
+        return Arrays.asList(signature);
+    }
+
+    /**
+     * Pins the generation. A pinned generation is not reclaimed.
+     *
+     * @return false if the generation was already reclaimed.
+     */
+    boolean pin() {
+        while (true) {
+            final int count = this.pins.get();
+
+            if (count < 0) {
+                return false;
+            } else if (this.pins.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void unpin() {
+        if (this.pins.decrementAndGet() == 0 && this.retired) {
+            this.reclaim();
+        }
+    }
+
+    /**
+     * Marks the generation as replaced. The generation is reclaimed as soon
+     * as the last pin is released.
+     */
+    void retire() {
+        this.retired = true;
+
+        if (this.pins.get() == 0) {
+            this.reclaim();
+        }
+    }
+
+    boolean isReclaimed() {
+        return this.pins.get() < 0;
+    }
+
+    private void reclaim() {
+        if (this.pins.compareAndSet(0, -1)) {
+            // drop the cached instances so that the implementation classes
+            // are only held by the newer generation
+            this.selected = null;
+            this.weightedSelected.clear();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A consistent view of the plugins registered to a PluginManager. Every
+ * lookup made through the view sees the keys, implementations and preferred
+ * key from the same point in time, even if the PluginManager is rebuilt while
+ * the view is open. The view should be closed once it is no longer needed so
+ * that the generation it pins can be reclaimed.
+ *
+ * @author zmichaels
+ * @param <Key> Lookup for plugins
+ * @param <Implementation> The plugin base type.
+ * @since 26.10.18
+ * @see PluginManager#view()
+ */
+public final class RegistryView<Key, Implementation> implements AutoCloseable {
+
+    private final RegistryGeneration<Key, Implementation> generation;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    RegistryView(final RegistryGeneration<Key, Implementation> generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Retrieves the generation number of the view. Generation numbers
+     * increase with each rebuild of the PluginManager.
+     *
+     * @return the generation number.
+     * @since 26.10.18
+     */
+    public long getGeneration() {
+        return this.generation.id;
+    }
+
+    /**
+     * Retrieves a list of plugins supported by the view.
+     *
+     * @return list of plugins
+     * @since 26.10.18
+     */
+    public List<Key> listPlugins() {
+        return this.generation.keys;
+    }
+
+    /**
+     * Retrieves the implementation class registered to the key.
+     *
+     * @param key the lookup key to use.
+     * @return the implementation class. May return an empty Optional if the
+     * key is not registered.
+     * @since 26.10.18
+     */
+    public Optional<Class<? extends Implementation>> getImplementationClass(final Key key) {
+        return Optional.ofNullable(this.generation.implementations.get(key));
+    }
+
+    /**
+     * Retrieves the key of the preferred implementation.
+     *
+     * @return the preferred key. May return an empty Optional if no plugins
+     * are registered.
+     * @since 26.10.18
+     */
+    public Optional<Key> getPreferredKey() {
+        return Optional.ofNullable(this.generation.preferred);
+    }
+
+    /**
+     * Retrieves either the implementation of the singleton instance or a new
+     * instance of the object in that order.
+     *
+     * @param key the lookup key to use.
+     * @param params optional parameters for calling the implementations
+     * @return the implementation.
+     * @throws PluginException if the key is not registered, no factory could
+     * be found for the implementation or the factory failed.
+     * @since 26.10.18
+     */
+    public Implementation getImplementation(final Key key, final Object... params) {
+        return this.generation.getImplementation(key, params);
+    }
+
+    /**
+     * Attempts to retrieve either the implementation of the singleton instance
+     * or a new instance of the object in that order.
+     *
+     * @param key the lookup key to use.
+     * @param params optional parameters for calling the implementations
+     * @return the implementation. May return an empty Optional if the key is
+     * not registered or the implementation could not be created.
+     * @since 26.10.18
+     */
+    public Optional<Implementation> tryGetImplementation(final Key key, final Object... params) {
+        return this.getFactory(key, params)
+                .map(handle -> PluginManager.invokeFactory(handle, params));
+    }
+
+    /**
+     * Resolves the factory used for creating instances of the implementation
+     * registered to the key.
+     *
+     * @param key the lookup key to use.
+     * @param params optional parameters for calling the implementation
+     * @return the factory. May return an empty Optional if the key is not
+     * registered or no factory could be found.
+     * @since 26.10.18
+     */
+    public Optional<MethodHandle> getFactory(final Key key, final Object... params) {
+        return this.generation.getFactory(key, params);
+    }
+
+    /**
+     * Releases the view. Closing a view more than once has no effect.
+     *
+     * @since 26.10.18
+     */
+    @Override
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.generation.unpin();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RegistryView generation %d: %s", this.generation.id, this.generation.keys);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Binary encoding of the calls exchanged with a RemotePluginHost. Primitive
+ * wrappers, Strings and byte arrays are written with a one byte tag followed
+ * by their value. Any other Serializable value falls back to Java
+ * serialization.
+ *
+ * A request is the call id, the method name, the argument count and each
+ * argument. A response is the call id, a status byte and either the result
+ * or the error message.
+ *
+ * Responses are read from the child JVM, so every length is checked against
+ * the bytes that remain before it is allocated and serialized results may
+ * only contain allowed classes.
+ *
+ * @author zmichaels
+ */
+final class RemoteCodec {
+
+    static final long SHUTDOWN = -1L;
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte BYTES = 10;
+    private static final byte SERIALIZED = 11;
+
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+
+    /**
+     * The classes that a serialized result may contain unless more are
+     * allowed. Arrays of allowed classes and of primitives are also allowed.
+     */
+    static final Set<String> DEFAULT_RESULT_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "java.lang.Number", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short",
+            "java.lang.Character", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double", "java.lang.String", "java.lang.Object",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.Arrays$ArrayList",
+            "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet")));
+
+    private RemoteCodec() {
+    }
+
+    static final class Request {
+
+        final long id;
+        final String method;
+        final Object[] args;
+
+        Request(final long id, final String method, final Object[] args) {
+            this.id = id;
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    static final class Response {
+
+        final long id;
+        final boolean failed;
+        final Object value;
+
+        Response(final long id, final boolean failed, final Object value) {
+            this.id = id;
+            this.failed = failed;
+            this.value = value;
+        }
+    }
+
+    static byte[] encodeRequest(final long id, final String method, final Object[] args) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(id);
+            out.writeUTF(method);
+            out.writeShort(args.length);
+
+            for (Object arg : args) {
+                writeValue(out, arg);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static Request decodeRequest(final byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final long id = in.readLong();
+            final String method = in.readUTF();
+            final Object[] args = new Object[in.readUnsignedShort()];
+
+            // requests come from the parent, so any class may be read
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readValue(in, type -> true);
+            }
+
+            return new Request(id, method, args);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static byte[] encodeResponse(final long id, final boolean failed, final Object value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(id);
+            out.writeByte(failed ? FAILED : OK);
+            writeValue(out, value);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a response. A serialized result that contains a class that is
+     * not allowed fails the call instead of being read.
+     *
+     * @param record the response record.
+     * @param allowed tests the name of each class in a serialized result.
+     * @return the response.
+     * @throws UncheckedIOException if the record is corrupt.
+     */
+    static Response decodeResponse(final byte[] record, final Predicate<String> allowed) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final long id = in.readLong();
+            final boolean failed = in.readByte() == FAILED;
+
+            try {
+                return new Response(id, failed, readValue(in, allowed));
+            } catch (InvalidClassException ex) {
+                return new Response(id, true, ex.getMessage());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            final byte[] utf = ((String) value).getBytes(StandardCharsets.UTF_8);
+
+            out.writeByte(STRING);
+            out.writeInt(utf.length);
+            out.write(utf);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Serializable) {
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+
+            try (ObjectOutputStream objOut = new ObjectOutputStream(serialized)) {
+                objOut.writeObject(value);
+            }
+
+            out.writeByte(SERIALIZED);
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+        } else {
+            throw new PluginException("Value can not be sent to a remote plugin: " + value.getClass().getTypeName());
+        }
+    }
+
+    private static Object readValue(final DataInputStream in, final Predicate<String> allowed) throws IOException {
+        final byte tag = in.readByte();
+
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHAR:
+                return in.readChar();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(in);
+            case SERIALIZED:
+                try (ObjectInputStream objIn = new RestrictedObjectInputStream(new ByteArrayInputStream(readBytes(in)), allowed)) {
+                    return objIn.readObject();
+                } catch (ClassNotFoundException ex) {
+                    throw new PluginException("Unable to read remote value!", ex);
+                }
+            default:
+                throw new PluginException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+
+        // the record is in memory, so available is the number of bytes left
+        if (length < 0 || length > in.available()) {
+            throw new StreamCorruptedException("Invalid value length: " + length);
+        }
+
+        final byte[] data = new byte[length];
+
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * An ObjectInputStream that only resolves allowed classes. Classes are
+     * checked by name before they are loaded and proxies are never resolved.
+     */
+    private static final class RestrictedObjectInputStream extends ObjectInputStream {
+
+        private final Predicate<String> allowed;
+
+        RestrictedObjectInputStream(final InputStream in, final Predicate<String> allowed) throws IOException {
+            super(in);
+            this.allowed = allowed;
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            final String name = desc.getName();
+            int dims = 0;
+
+            while (dims < name.length() && name.charAt(dims) == '[') {
+                dims++;
+            }
+
+            // arrays of primitives have no class name after the brackets
+            final boolean primitiveArray = dims > 0 && name.charAt(dims) != 'L';
+            final String element = (dims > 0 && !primitiveArray)
+                    ? name.substring(dims + 1, name.length() - 1)
+                    : name;
+
+            if (!primitiveArray && !this.allowed.test(element)) {
+                throw new InvalidClassException(name, "Class is not allowed in a remote result");
+            }
+
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy classes are not allowed in a remote result");
+        }
+    }
+}
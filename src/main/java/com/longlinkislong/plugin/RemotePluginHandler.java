@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A PluginHandler that runs every plugin in its own child JVM. Instances
+ * returned by newInstance are proxies of the base interface that call the
+ * plugin through a RemotePluginHost. Each lookup starts one host on first
+ * use; every instance of that lookup shares the hosted plugin.
+ *
+ * Plugin classes are only loaded by the current JVM to read their
+ * descriptors. Disable initializeClasses on the PluginScanner to keep their
+ * static initializers out of the current JVM.
+ *
+ * @author zmichaels
+ * @param <BaseType> the base interface of the plugins.
+ * @since 26.10.18
+ */
+public class RemotePluginHandler<BaseType> extends AbstractPluginHandler<BaseType> implements AutoCloseable {
+
+    private final PluginManager<String, BaseType> pm = new PluginManager<>();
+    private final Map<String, RemotePluginHost> hosts = new ConcurrentHashMap<>();
+    private final Class<BaseType> baseClass;
+
+    /**
+     * Constructs a new RemotePluginHandler.
+     *
+     * @param baseClass the base interface of the plugins.
+     * @throws IllegalArgumentException if baseClass is not an interface.
+     * @since 26.10.18
+     */
+    public RemotePluginHandler(final Class<BaseType> baseClass) {
+        if (!baseClass.isInterface()) {
+            throw new IllegalArgumentException("Remote plugins must be called through an interface!");
+        }
+
+        this.baseClass = baseClass;
+    }
+
+    @Override
+    protected PluginManager<String, BaseType> getPluginManager() {
+        return this.pm;
+    }
+
+    @Override
+    public boolean supportsType(Class theType) {
+        return this.baseClass.isAssignableFrom(theType);
+    }
+
+    /**
+     * Retrieves the host of the plugin. The host is started if it is not
+     * running.
+     *
+     * @param id the id of the plugin
+     * @return the host. May return empty if no plugin was registered with the
+     * given id.
+     * @throws PluginException if the child JVM could not be started.
+     * @since 26.10.18
+     */
+    public Optional<RemotePluginHost> getHost(final String id) {
+        return this.getClass(id).map(def -> this.hosts.compute(id, (key, host) -> {
+            if (host != null && host.isAlive() && host.getPluginClass() == def) {
+                return host;
+            }
+
+            if (host != null) {
+                host.close();
+            }
+
+            try {
+                return RemotePluginHost.launch(def);
+            } catch (IOException ex) {
+                throw new PluginException("Unable to launch plugin host: " + id, ex);
+            }
+        }));
+    }
+
+    /**
+     * Creates a proxy of the plugin. Remote plugins are created by the child
+     * JVM, so no parameters can be passed.
+     *
+     * @param id the id of the plugin
+     * @param params must be empty.
+     * @return the proxy. May return empty if no plugin was registered with the
+     * given id.
+     */
+    @Override
+    public Optional<BaseType> newInstance(final String id, Object... params) {
+        if (params.length > 0) {
+            throw new PluginException("Remote plugins do not accept constructor parameters!");
+        }
+
+        return this.getHost(id).map(host -> host.getProxy(this.baseClass));
+    }
+
+    /**
+     * Retrieves a HotSwapPlugin that calls the plugin in its child JVM.
+     *
+     * @param id the id of the plugin
+     * @return the plugin. May return empty if no plugin was registered with
+     * the given id.
+     * @since 26.10.18
+     */
+    public Optional<HotSwapPlugin<BaseType>> getHotSwapImplementation(final String id) {
+        return this.getHost(id).map(host -> host.getPlugin(this.baseClass));
+    }
+
+    /**
+     * Starts the host of the plugin. The class is not initialized in the
+     * current JVM.
+     *
+     * @param id the id of the plugin
+     * @param initialize if the host should be started.
+     */
+    @Override
+    public void warmUp(final String id, final boolean initialize) {
+        if (initialize) {
+            this.getHost(id);
+        }
+    }
+
+    /**
+     * Stops every child JVM started by this handler.
+     *
+     * @since 26.10.18
+     */
+    @Override
+    public void close() {
+        final List<RemotePluginHost> running = new ArrayList<>(this.hosts.values());
+
+        this.hosts.clear();
+        running.forEach(RemotePluginHost::close);
+    }
+}
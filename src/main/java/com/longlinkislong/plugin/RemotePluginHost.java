@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a plugin in a child JVM. Calls are exchanged through two ring buffers
+ * in a memory mapped file, one for requests and one for responses, so a call
+ * does not pass through the kernel. A crash of the plugin only ends the child
+ * JVM; calls that were waiting on it fail with a PluginException.
+ *
+ * The plugin is called through a Proxy of one of its interfaces. Arguments
+ * and results are copied between the processes, so they must be primitive
+ * wrappers, Strings, byte arrays or Serializable. A Serializable result may
+ * only contain boxed primitives, Strings, common collections and the classes
+ * allowed with allowResultType, since the child JVM is not trusted.
+ *
+ * @author zmichaels
+ * @since 26.10.18
+ * @see RemotePluginHandler
+ */
+public final class RemotePluginHost implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemotePluginHost.class);
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Class<?> pluginClass;
+    private final Process process;
+    private final Path file;
+    private final SharedRingBuffer requests;
+    private final SharedRingBuffer responses;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private volatile Throwable failure = null;
+    private volatile long timeoutNanos = DEFAULT_TIMEOUT;
+    private final Set<String> resultTypes = ConcurrentHashMap.newKeySet();
+
+    private RemotePluginHost(final Class<?> pluginClass, final Process process, final Path file, final ByteBuffer[] rings) {
+        this.pluginClass = pluginClass;
+        this.process = process;
+        this.file = file;
+        this.requests = new SharedRingBuffer(rings[0]);
+        this.responses = new SharedRingBuffer(rings[1]);
+        this.resultTypes.addAll(RemoteCodec.DEFAULT_RESULT_TYPES);
+
+        final Thread poller = new Thread(this::pollResponses, "plugin-host-" + pluginClass.getSimpleName());
+
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Starts a child JVM that hosts a new instance of the plugin. The child
+     * uses the classpath of the current JVM.
+     *
+     * @param pluginClass the class of the plugin.
+     * @return the host.
+     * @throws IOException if the shared file could not be created or the
+     * child JVM could not be started.
+     * @since 26.10.18
+     */
+    public static RemotePluginHost launch(final Class<?> pluginClass) throws IOException {
+        return launch(pluginClass, DEFAULT_CAPACITY, System.getProperty("java.class.path"));
+    }
+
+    /**
+     * Starts a child JVM that hosts a new instance of the plugin. The plugin
+     * is created by the child the same way as
+     * PluginManager.getImplementation(Class).
+     *
+     * @param pluginClass the class of the plugin.
+     * @param capacity the size in bytes of each ring buffer.
+     * @param classpath the classpath of the child JVM.
+     * @return the host.
+     * @throws IOException if the shared file could not be created or the
+     * child JVM could not be started.
+     * @since 26.10.18
+     */
+    public static RemotePluginHost launch(final Class<?> pluginClass, final int capacity, final String classpath) throws IOException {
+        final Path file = Files.createTempFile("plugin-host", ".ring");
+        final ByteBuffer[] rings = map(file, capacity);
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final Process process = new ProcessBuilder(
+                java, "-cp", classpath,
+                RemotePluginHost.class.getName(),
+                file.toString(),
+                Integer.toString(capacity),
+                pluginClass.getName())
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        return new RemotePluginHost(pluginClass, process, file, rings);
+    }
+
+    private static ByteBuffer[] map(final Path file, final int capacity) throws IOException {
+        final int ringSize = SharedRingBuffer.sizeOf(capacity);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * ringSize);
+
+            mapped.limit(ringSize);
+
+            final ByteBuffer first = mapped.slice();
+
+            mapped.limit(2 * ringSize).position(ringSize);
+
+            return new ByteBuffer[]{first, mapped.slice()};
+        }
+    }
+
+    /**
+     * Backs off while a ring buffer is empty or full. The caller spins first,
+     * then yields and finally parks for short periods.
+     *
+     * @param misses the number of consecutive misses.
+     */
+    private static void idle(final int misses) {
+        if (misses < 100) {
+            return;
+        } else if (misses < 1000) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000L);
+        }
+    }
+
+    /**
+     * Retrieves the class of the hosted plugin.
+     *
+     * @return the plugin class.
+     * @since 26.10.18
+     */
+    public Class<?> getPluginClass() {
+        return this.pluginClass;
+    }
+
+    /**
+     * Sets how long a call waits for the hosted plugin before it fails. The
+     * wait includes the time spent waiting for space in the request ring. The
+     * default is 30 seconds.
+     *
+     * @param timeout the timeout.
+     * @param unit the unit of the timeout.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public RemotePluginHost setCallTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive!");
+        }
+
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Allows a class to be read from a Serializable result. Results that
+     * contain any other class fail with a PluginException.
+     *
+     * @param type the class.
+     * @return self-reference.
+     * @since 26.10.18
+     */
+    public RemotePluginHost allowResultType(final Class<?> type) {
+        this.resultTypes.add(type.getName());
+        return this;
+    }
+
+    /**
+     * Checks if the child JVM is running.
+     *
+     * @return true if calls can be made.
+     * @since 26.10.18
+     */
+    public boolean isAlive() {
+        return this.failure == null && this.process.isAlive();
+    }
+
+    /**
+     * Calls a method of the hosted plugin and waits for the result. The
+     * method is matched by name and number of parameters.
+     *
+     * @param method the method to invoke
+     * @param params the parameters to pass
+     * @return the result of the operation.
+     * @throws PluginException if the call failed, timed out or the child JVM
+     * is not running.
+     * @since 26.10.18
+     */
+    public Object invoke(final String method, final Object... params) throws PluginException {
+        final long deadline = System.nanoTime() + this.timeoutNanos;
+        final long id = this.ids.incrementAndGet();
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final byte[] record = RemoteCodec.encodeRequest(id, method, params);
+
+        this.pending.put(id, result);
+
+        if (this.failure != null) {
+            this.pending.remove(id);
+            throw new PluginException("Plugin host is not running!", this.failure);
+        }
+
+        try {
+            synchronized (this.requests) {
+                int misses = 0;
+
+                while (!this.requests.offer(record)) {
+                    if (this.failure != null) {
+                        throw new PluginException("Plugin host is not running!", this.failure);
+                    } else if (System.nanoTime() - deadline >= 0) {
+                        throw new PluginException("Plugin host is not accepting calls: " + method, null, false);
+                    }
+
+                    idle(++misses);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            this.pending.remove(id);
+            throw new PluginException("Remote call is too large: " + method, ex);
+        } catch (PluginException ex) {
+            this.pending.remove(id);
+            throw ex;
+        }
+
+        try {
+            return result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            // a late response finds no pending call and is dropped
+            this.pending.remove(id);
+            throw new PluginException("Remote call timed out: " + method, null, false);
+        } catch (InterruptedException ex) {
+            this.pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new PluginException("Interrupted while waiting for plugin host!", ex);
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() instanceof PluginException)
+                    ? (PluginException) ex.getCause()
+                    : new PluginException("Remote call failed: " + method, ex.getCause());
+        }
+    }
+
+    private void pollResponses() {
+        int misses = 0;
+
+        while (this.failure == null) {
+            final byte[] record;
+            final RemoteCodec.Response response;
+
+            try {
+                record = this.responses.poll();
+                response = (record == null) ? null : RemoteCodec.decodeResponse(record, this.resultTypes::contains);
+            } catch (Throwable ex) {
+                // the child wrote something unreadable, so nothing after it can be trusted
+                LOGGER.error("Unable to read response from plugin host: {}", this.pluginClass.getTypeName());
+                LOGGER.debug(ex.getMessage(), ex);
+                this.fail(new PluginException("Unable to read response from plugin host!", ex));
+                this.process.destroyForcibly();
+                return;
+            }
+
+            if (record == null) {
+                if (++misses % 1024 == 0 && !this.process.isAlive()) {
+                    this.fail(new PluginException("Plugin host exited with code: " + this.process.exitValue()));
+                }
+
+                idle(misses);
+                continue;
+            }
+
+            misses = 0;
+
+            final CompletableFuture<Object> result = this.pending.remove(response.id);
+
+            if (result == null) {
+                continue;
+            } else if (response.failed) {
+                result.completeExceptionally(new PluginException("Remote plugin failed: " + response.value, null, false));
+            } else {
+                result.complete(response.value);
+            }
+        }
+    }
+
+    private void fail(final Throwable cause) {
+        this.failure = cause;
+
+        final List<Long> waiting = new ArrayList<>(this.pending.keySet());
+
+        for (Long id : waiting) {
+            final CompletableFuture<Object> result = this.pending.remove(id);
+
+            if (result != null) {
+                result.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Creates a Proxy that forwards every call to the hosted plugin. equals
+     * and hashCode are handled locally.
+     *
+     * @param <T> the interface type.
+     * @param type an interface implemented by the plugin.
+     * @return the proxy.
+     * @throws IllegalArgumentException if the plugin does not implement the
+     * interface.
+     * @since 26.10.18
+     */
+    public <T> T getProxy(final Class<T> type) {
+        if (!type.isInterface() || !type.isAssignableFrom(this.pluginClass)) {
+            throw new IllegalArgumentException("Plugin does not implement interface: " + type.getTypeName());
+        }
+
+        final Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+                return self == args[0];
+            } else if (method.getName().equals("hashCode") && method.getParameterCount() == 0) {
+                return System.identityHashCode(self);
+            } else {
+                return this.invoke(method.getName(), (args == null) ? new Object[0] : args);
+            }
+        });
+
+        return type.cast(proxy);
+    }
+
+    /**
+     * Retrieves a HotSwapPlugin that calls the hosted plugin.
+     *
+     * @param <T> the interface type.
+     * @param type an interface implemented by the plugin.
+     * @return the plugin.
+     * @since 26.10.18
+     */
+    public <T> HotSwapPlugin<T> getPlugin(final Class<T> type) {
+        return new HotSwapPlugin<>(this.getProxy(type));
+    }
+
+    /**
+     * Stops the child JVM. Calls that are still waiting fail with a
+     * PluginException.
+     *
+     * @since 26.10.18
+     */
+    @Override
+    public void close() {
+        final boolean running = this.failure == null;
+
+        // failing first releases any caller waiting for space in the ring
+        this.fail(new PluginException("Plugin host was closed!", null, false));
+
+        if (running) {
+            final byte[] shutdown = RemoteCodec.encodeRequest(RemoteCodec.SHUTDOWN, "", new Object[0]);
+            final long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT;
+
+            synchronized (this.requests) {
+                int misses = 0;
+
+                // closing stdin below also stops the child if the ring stays full
+                while (!this.requests.offer(shutdown) && System.nanoTime() - deadline < 0) {
+                    idle(++misses);
+                }
+            }
+        }
+
+        try {
+            this.process.getOutputStream().close();
+
+            if (!this.process.waitFor(1, TimeUnit.SECONDS)) {
+                this.process.destroyForcibly();
+            }
+        } catch (IOException ex) {
+            LOGGER.debug(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            this.process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException ex) {
+            // the mapping may still hold the file open on some platforms
+            this.file.toFile().deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RemotePluginHost %s: %s", this.pluginClass.getTypeName(), this.isAlive() ? "running" : "stopped");
+    }
+
+    /**
+     * Entry point of the child JVM. The arguments are the shared file, the
+     * capacity of each ring buffer and the class name of the plugin.
+     *
+     * @param args the command line arguments.
+     * @throws Exception if the plugin could not be hosted.
+     */
+    public static void main(final String[] args) throws Exception {
+        final ByteBuffer[] rings = map(Paths.get(args[0]), Integer.parseInt(args[1]));
+        final SharedRingBuffer requests = new SharedRingBuffer(rings[0]);
+        final SharedRingBuffer responses = new SharedRingBuffer(rings[1]);
+        final Class<?> def = Class.forName(args[2]);
+        final Object plugin = PluginManager.getImplementation(def);
+
+        if (plugin == null) {
+            LOGGER.error("Unable to create plugin: {}", def.getTypeName());
+            System.exit(2);
+        }
+
+        // the parent holds the other end of stdin; end of stream means it exited
+        final Thread watchdog = new Thread(() -> {
+            try (InputStream in = System.in) {
+                while (in.read() != -1) {
+                    // ignore any input
+                }
+            } catch (IOException ex) {
+                LOGGER.debug(ex.getMessage(), ex);
+            }
+
+            System.exit(0);
+        }, "plugin-host-watchdog");
+
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        final Map<String, List<MethodHandle>> methods = new HashMap<>();
+        int misses = 0;
+
+        while (true) {
+            final byte[] record = requests.poll();
+
+            if (record == null) {
+                idle(++misses);
+                continue;
+            }
+
+            misses = 0;
+
+            final RemoteCodec.Request request = RemoteCodec.decodeRequest(record);
+
+            if (request.id == RemoteCodec.SHUTDOWN) {
+                break;
+            }
+
+            byte[] response;
+
+            try {
+                final Object result = findMethod(methods, plugin, request).invokeWithArguments(request.args);
+
+                response = RemoteCodec.encodeResponse(request.id, false, result);
+            } catch (Throwable ex) {
+                response = RemoteCodec.encodeResponse(request.id, true, ex.toString());
+            }
+
+            while (!responses.offer(response)) {
+                idle(++misses);
+            }
+
+            misses = 0;
+        }
+
+        System.exit(0);
+    }
+
+    private static MethodHandle findMethod(final Map<String, List<MethodHandle>> methods, final Object plugin, final RemoteCodec.Request request) {
+        final List<MethodHandle> candidates = methods.computeIfAbsent(request.method + "/" + request.args.length, key -> {
+            final List<MethodHandle> found = new ArrayList<>();
+
+            for (Method method : plugin.getClass().getMethods()) {
+                if (method.getName().equals(request.method)
+                        && method.getParameterCount() == request.args.length
+                        && !Modifier.isStatic(method.getModifiers())) {
+
+                    try {
+                        found.add(MethodHandles.publicLookup().unreflect(method).bindTo(plugin));
+                    } catch (IllegalAccessException ex) {
+                        LOGGER.debug("Skipping inaccessible method: {}", method);
+                    }
+                }
+            }
+
+            return found;
+        });
+
+        for (MethodHandle candidate : candidates) {
+            if (isApplicable(candidate, request.args)) {
+                return candidate;
+            }
+        }
+
+        throw new PluginException("Unable to fetch method: " + request.method);
+    }
+
+    private static boolean isApplicable(final MethodHandle handle, final Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            final Class<?> param = handle.type().parameterType(i);
+
+            if (args[i] == null) {
+                if (param.isPrimitive()) {
+                    return false;
+                }
+            } else if (!MethodType.methodType(param).wrap().returnType().isInstance(args[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A RoutedPlugin spreads calls across several interchangeable HotSwapPlugins.
+ * The RoutingPolicy selects the plugin for each call and is informed of the
+ * latency and outcome of the call.
+ *
+ * @author zmichaels
+ * @param <PluginType> the type of plugin.
+ * @since 26.10.18
+ */
+public class RoutedPlugin<PluginType> {
+
+    private final List<HotSwapPlugin<PluginType>> plugins;
+    private final RoutingPolicy policy;
+
+    /**
+     * Constructs a new RoutedPlugin.
+     *
+     * @param plugins the plugins to route between.
+     * @param policy the policy used for selecting a plugin.
+     * @since 26.10.18
+     */
+    public RoutedPlugin(final List<HotSwapPlugin<PluginType>> plugins, final RoutingPolicy policy) {
+        if (plugins.isEmpty()) {
+            throw new IllegalArgumentException("At least one plugin is required!");
+        }
+
+        this.plugins = Collections.unmodifiableList(new ArrayList<>(plugins));
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+    /**
+     * Retrieves the plugins routed between.
+     *
+     * @return unmodifiable list of plugins.
+     * @since 26.10.18
+     */
+    public List<HotSwapPlugin<PluginType>> getPlugins() {
+        return this.plugins;
+    }
+
+    /**
+     * Retrieves the RoutingPolicy.
+     *
+     * @return the policy.
+     * @since 26.10.18
+     */
+    public RoutingPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Invokes the specified method on the plugin selected by the policy.
+     *
+     * @param method the method to invoke
+     * @param params the parameters to pass
+     * @return the result of the operation.
+     * @throws PluginException if the method could not be executed.
+     * @since 26.10.18
+     */
+    public Object invoke(final String method, final Object... params) throws PluginException {
+        final int index = this.policy.select();
+        final HotSwapPlugin<PluginType> plugin = this.plugins.get(index);
+        final long start = System.nanoTime();
+
+        try {
+            final Object result = plugin.invoke(method, params);
+
+            this.policy.record(index, System.nanoTime() - start, false);
+
+            return result;
+        } catch (RuntimeException ex) {
+            this.policy.record(index, System.nanoTime() - start, true);
+
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A single producer, single consumer ring buffer of variable length records
+ * stored in a ByteBuffer. The buffer is usually a slice of a memory mapped
+ * file shared by two processes. Each record is written as its length followed
+ * by its bytes and may wrap around the end of the data region.
+ *
+ * The write and read sequences are stored in separate cache lines at the
+ * start of the buffer. Java 8 has no ordered access to buffer memory, so the
+ * sequences are read and written with the volatile accesses of
+ * sun.misc.Unsafe on the address of the buffer. These are atomic and order
+ * the record bytes on every processor, not only on x86. Unsafe is looked up
+ * reflectively; a JVM without it cannot create a SharedRingBuffer.
+ *
+ * @author zmichaels
+ */
+final class SharedRingBuffer {
+
+    static final int HEADER_SIZE = 128;
+    private static final int WRITE_OFFSET = 0;
+    private static final int READ_OFFSET = 64;
+
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_LONG_VOLATILE;
+    private static final MethodHandle GET_ADDRESS;
+
+    static {
+        MethodHandle getLongVolatile = null;
+        MethodHandle putLongVolatile = null;
+        MethodHandle getAddress = null;
+
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+
+            theUnsafe.setAccessible(true);
+
+            final Object unsafe = theUnsafe.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final long addressOffset = (long) lookup
+                    .findVirtual(unsafeClass, "objectFieldOffset", MethodType.methodType(long.class, Field.class))
+                    .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            final MethodHandle getLong = lookup
+                    .findVirtual(unsafeClass, "getLong", MethodType.methodType(long.class, Object.class, long.class))
+                    .bindTo(unsafe);
+
+            getLongVolatile = lookup
+                    .findVirtual(unsafeClass, "getLongVolatile", MethodType.methodType(long.class, Object.class, long.class))
+                    .bindTo(unsafe);
+            putLongVolatile = lookup
+                    .findVirtual(unsafeClass, "putLongVolatile", MethodType.methodType(void.class, Object.class, long.class, long.class))
+                    .bindTo(unsafe);
+            getAddress = MethodHandles.insertArguments(getLong, 1, addressOffset)
+                    .asType(MethodType.methodType(long.class, ByteBuffer.class));
+        } catch (Throwable ex) {
+            getLongVolatile = null;
+            putLongVolatile = null;
+            getAddress = null;
+        }
+
+        GET_LONG_VOLATILE = getLongVolatile;
+        PUT_LONG_VOLATILE = putLongVolatile;
+        GET_ADDRESS = getAddress;
+    }
+
+    // keeps the mapping alive while its address is in use
+    private final ByteBuffer buffer;
+    private final long address;
+    // separate views so that the producer and consumer positions never mix
+    private final ByteBuffer producer;
+    private final ByteBuffer consumer;
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * Wraps a ByteBuffer as a ring buffer.
+     *
+     * @param buffer the direct buffer. Its capacity must be HEADER_SIZE plus a
+     * power of 2.
+     * @throws UnsupportedOperationException if the JVM has no ordered access
+     * to buffer memory.
+     */
+    SharedRingBuffer(final ByteBuffer buffer) {
+        if (GET_ADDRESS == null) {
+            throw new UnsupportedOperationException("Ordered access to shared memory is not available on this JVM!");
+        } else if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Ring buffer must be a direct buffer!");
+        }
+
+        try {
+            this.address = (long) GET_ADDRESS.invokeExact(buffer);
+        } catch (Throwable ex) {
+            throw new UnsupportedOperationException("Unable to locate shared memory!", ex);
+        }
+
+        // the sequences must be 8 byte aligned to be read atomically
+        if ((this.address & 7L) != 0L) {
+            throw new IllegalArgumentException("Ring buffer must be 8 byte aligned!");
+        }
+
+        this.buffer = buffer;
+        this.producer = buffer.duplicate();
+        this.consumer = buffer.duplicate();
+        this.capacity = buffer.capacity() - HEADER_SIZE;
+
+        if (this.capacity <= 0 || Integer.bitCount(this.capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of 2!");
+        }
+
+        this.mask = this.capacity - 1;
+    }
+
+    /**
+     * Calculates the size of the buffer needed for the data capacity.
+     *
+     * @param capacity the capacity of the data region. Rounded up to the next
+     * power of 2.
+     * @return the buffer size.
+     */
+    static int sizeOf(final int capacity) {
+        return HEADER_SIZE + Math.max(Integer.highestOneBit(capacity - 1) << 1, 64);
+    }
+
+    private long readSequence(final int offset) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, this.address + offset);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void writeSequence(final int offset, final long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact((Object) null, this.address + offset, value);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes a record. Only the producer may call this method.
+     *
+     * @param record the record.
+     * @return false if there is not enough free space.
+     */
+    boolean offer(final byte[] record) {
+        final int size = Integer.BYTES + record.length;
+
+        if (size > this.capacity) {
+            throw new IllegalArgumentException("Record is larger than the ring buffer!");
+        }
+
+        final long write = this.readSequence(WRITE_OFFSET);
+        final long read = this.readSequence(READ_OFFSET);
+
+        if (write + size - read > this.capacity) {
+            return false;
+        }
+
+        this.put(write, intToBytes(record.length));
+        this.put(write + Integer.BYTES, record);
+        this.writeSequence(WRITE_OFFSET, write + size);
+
+        return true;
+    }
+
+    /**
+     * Reads the next record. Only the consumer may call this method. The
+     * sequences and the record length are written by the other process, so
+     * they are checked before anything is allocated.
+     *
+     * @return the record or null if the ring buffer is empty.
+     * @throws IllegalStateException if the ring buffer is corrupt.
+     */
+    byte[] poll() {
+        final long read = this.readSequence(READ_OFFSET);
+        final long write = this.readSequence(WRITE_OFFSET);
+
+        if (read == write) {
+            return null;
+        }
+
+        final long available = write - read;
+
+        if (available < Integer.BYTES || available > this.capacity) {
+            throw new IllegalStateException("Corrupt ring buffer sequence: " + available + " bytes available");
+        }
+
+        final byte[] length = new byte[Integer.BYTES];
+
+        this.get(read, length);
+
+        final int size = bytesToInt(length);
+
+        if (size < 0 || size > available - Integer.BYTES) {
+            throw new IllegalStateException("Corrupt ring buffer record length: " + size);
+        }
+
+        final byte[] record = new byte[size];
+
+        this.get(read + Integer.BYTES, record);
+        this.writeSequence(READ_OFFSET, read + Integer.BYTES + record.length);
+
+        return record;
+    }
+
+    private void put(final long position, final byte[] data) {
+        final int start = (int) (position & this.mask);
+        final int first = Math.min(data.length, this.capacity - start);
+
+        this.producer.position(HEADER_SIZE + start);
+        this.producer.put(data, 0, first);
+
+        if (first < data.length) {
+            this.producer.position(HEADER_SIZE);
+            this.producer.put(data, first, data.length - first);
+        }
+    }
+
+    private void get(final long position, final byte[] data) {
+        final int start = (int) (position & this.mask);
+        final int first = Math.min(data.length, this.capacity - start);
+
+        this.consumer.position(HEADER_SIZE + start);
+        this.consumer.get(data, 0, first);
+
+        if (first < data.length) {
+            this.consumer.position(HEADER_SIZE);
+            this.consumer.get(data, first, data.length - first);
+        }
+    }
+
+    private static byte[] intToBytes(final int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static int bytesToInt(final byte[] bytes) {
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+}
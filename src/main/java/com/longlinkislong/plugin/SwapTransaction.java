@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Replaces the implementations of several plugins at once. Each staged
+ * implementation is instantiated and upgraded for every HotSwapPlugin of its
+ * key before any of them are used. Committing the transaction then switches
+ * every HotSwapPlugin to its staged implementation with a single volatile
+ * write, so no caller can observe a mix of old and new implementations.
+ *
+ * @author zmichaels
+ * @param <Key> Lookup for plugins
+ * @param <Implementation> The plugin base type.
+ * @since 26.10.18
+ * @see PluginManager#beginSwap()
+ */
+public final class SwapTransaction<Key, Implementation> {
+
+    private final PluginManager<Key, Implementation> manager;
+    private final Map<Key, Class<? extends Implementation>> staged = new LinkedHashMap<>();
+    private volatile boolean committed = false;
+    private boolean completed = false;
+
+    SwapTransaction(final PluginManager<Key, Implementation> manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Stages a replacement implementation for the key. Staging the same key
+     * again replaces the previously staged implementation.
+     *
+     * @param key the key to replace.
+     * @param impl the replacement implementation.
+     * @return self-reference.
+     * @throws PluginException if the transaction was already committed.
+     * @since 26.10.18
+     */
+    public synchronized SwapTransaction<Key, Implementation> stage(final Key key, final Class<? extends Implementation> impl) {
+        if (this.completed) {
+            throw new PluginException("Swap transaction has already completed!");
+        }
+
+        this.staged.put(Objects.requireNonNull(key), Objects.requireNonNull(impl));
+
+        return this;
+    }
+
+    /**
+     * Retrieves the implementations staged by the transaction.
+     *
+     * @return the staged implementations in the order they were staged.
+     * @since 26.10.18
+     */
+    public synchronized Map<Key, Class<? extends Implementation>> getStaged() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this.staged));
+    }
+
+    /**
+     * Checks if the transaction was committed.
+     *
+     * @return true if the staged implementations are in use.
+     * @since 26.10.18
+     */
+    public boolean isCommitted() {
+        return this.committed;
+    }
+
+    /**
+     * Commits the transaction. If any staged implementation can not be
+     * instantiated or upgraded, every HotSwapPlugin is left on its current
+     * implementation and the transaction is rolled back.
+     *
+     * @throws PluginException if the transaction was already committed, any
+     * staged implementation could not be prepared or a HotSwapPlugin of a
+     * staged key is being swapped by another transaction.
+     * @since 26.10.18
+     */
+    public synchronized void commit() {
+        if (this.completed) {
+            throw new PluginException("Swap transaction has already completed!");
+        }
+
+        this.completed = true;
+        this.manager.commitSwap(this, this.staged);
+    }
+
+    /**
+     * Publishes every staged plugin at once.
+     */
+    void publish() {
+        this.committed = true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SwapTransaction staged: %s", this.staged);
+    }
+}
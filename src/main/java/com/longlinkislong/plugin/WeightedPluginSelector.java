@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A PluginSelector that shares traffic between several plugins by weight.
+ * Each call to getPreferred picks a key in proportion to its weight. Weights
+ * can be changed at any time; the new weights are used by the next pick
+ * without rebuilding the PluginManager. The selector is also a RoutingPolicy
+ * whose indices match the order of getSupported.
+ *
+ * @author zmichaels
+ * @param <Key> Lookup for plugins
+ * @param <Implementation> The plugin base type.
+ * @since 26.10.18
+ * @see PluginManager#getWeightedImplementation()
+ */
+public final class WeightedPluginSelector<Key, Implementation> implements PluginSelector<Key, Implementation>, RoutingPolicy {
+
+    private final PluginSelector<Key, Implementation> selector;
+    private final List<Key> keys;
+    private final Map<Key, Double> weights = new HashMap<>();
+    private volatile AliasTable table;
+
+    /**
+     * Constructs a new WeightedPluginSelector. Keys without a weight are
+     * given a weight of 0 and are never picked.
+     *
+     * @param selector the selector that supplies the plugins.
+     * @param weights the weight of each key.
+     * @throws IllegalArgumentException if no key has a positive weight.
+     * @since 26.10.18
+     */
+    public WeightedPluginSelector(final PluginSelector<Key, Implementation> selector, final Map<Key, ? extends Number> weights) {
+        this.selector = Objects.requireNonNull(selector);
+        this.keys = Collections.unmodifiableList(new ArrayList<>(selector.getSupported()));
+        this.setWeights(weights);
+    }
+
+    /**
+     * Replaces the weights of the listed keys. The weights of the keys that
+     * are not listed are kept.
+     *
+     * @param weights the new weights.
+     * @throws IllegalArgumentException if the weights are invalid, in which
+     * case no weight is changed.
+     * @since 26.10.18
+     */
+    public synchronized void setWeights(final Map<Key, ? extends Number> weights) {
+        final Map<Key, Double> updated = new HashMap<>(this.weights);
+
+        weights.forEach((key, weight) -> updated.put(key, weight.doubleValue()));
+
+        final double[] values = new double[this.keys.size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = updated.getOrDefault(this.keys.get(i), 0.0);
+        }
+
+        this.table = new AliasTable(values);
+        this.weights.clear();
+        this.weights.putAll(updated);
+    }
+
+    /**
+     * Sets the weight of a single key.
+     *
+     * @param key the key.
+     * @param weight the new weight.
+     * @throws IllegalArgumentException if the weight is invalid or no key
+     * would be left with a positive weight.
+     * @since 26.10.18
+     */
+    public void setWeight(final Key key, final double weight) {
+        this.setWeights(Collections.singletonMap(key, weight));
+    }
+
+    /**
+     * Retrieves the weight of a key.
+     *
+     * @param key the key.
+     * @return the weight. Returns 0 for keys without a weight.
+     * @since 26.10.18
+     */
+    public synchronized double getWeight(final Key key) {
+        return this.weights.getOrDefault(key, 0.0);
+    }
+
+    /**
+     * Picks a key in proportion to the weights.
+     *
+     * @return the picked key.
+     * @since 26.10.18
+     */
+    @Override
+    public Key getPreferred() {
+        return this.keys.get(this.table.sample());
+    }
+
+    /**
+     * Picks the index of a key in proportion to the weights. The index
+     * matches the order of getSupported.
+     *
+     * @return the index of the picked key.
+     * @since 26.10.18
+     */
+    @Override
+    public int select() {
+        return this.table.sample();
+    }
+
+    @Override
+    public List<Key> getSupported() {
+        return this.keys;
+    }
+
+    @Override
+    public void registerImplements(final Map<Key, Class<? extends Implementation>> pluginImpl) {
+        this.selector.registerImplements(pluginImpl);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("WeightedPluginSelector weights: %s", this.weights);
+    }
+}
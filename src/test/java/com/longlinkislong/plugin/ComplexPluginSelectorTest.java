@@ -25,12 +25,24 @@
  */
 package com.longlinkislong.plugin;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
+import simpleplugin.GoodbyeWorldPlugin;
+import simpleplugin.HelloWorldPlugin;
+import simpleplugin.IndexedPlugin;
 
 /**
  *
@@ -74,4 +86,126 @@ public class ComplexPluginSelectorTest {
         assertNotSame(plugin0.getClass(), plugin1.getClass());
         assertEquals(plugin1.getClass(), plugin2.getClass());
     }
+
+    @Test
+    public void testCalibratedPreferred() throws IOException {
+        final Path cache = Files.createTempFile("calibration", ".properties");
+        final PluginCalibrator<String, SimplePlugin> calibrator = new PluginCalibrator<String, SimplePlugin>(plugin -> {
+            if (plugin instanceof HelloWorldPlugin) {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).setCacheFile(cache);
+
+        try {
+            assertEquals(Optional.of("IndexedPlugin"), this.plugins.calibratePreferred(calibrator));
+            assertEquals(IndexedPlugin.class, this.plugins.getPreferred().getClass());
+
+            // the second calibration should be read from the cache
+            assertEquals(Optional.of("IndexedPlugin"), this.plugins.calibratePreferred(calibrator));
+            assertTrue(calibrator.getResults().isEmpty());
+
+            // a changed implementation invalidates the cached result
+            this.plugins.registerSelector(PluginSelector.singletonSelector("IndexedPlugin", GoodbyeWorldPlugin.class));
+            this.plugins.calibratePreferred(calibrator);
+            assertFalse(calibrator.getResults().isEmpty());
+        } finally {
+            Files.delete(cache);
+        }
+    }
+
+    @Test
+    public void testFlatJoin() {
+        final PluginSelector<String, SimplePlugin> hello = PluginSelector.singletonSelector("Hello", HelloWorldPlugin.class);
+        final PluginSelector<String, SimplePlugin> indexed = PluginSelector.singletonSelector("Indexed", IndexedPlugin.class);
+        final PluginSelector<String, SimplePlugin> goodbye = PluginSelector.singletonSelector("Hello", GoodbyeWorldPlugin.class);
+        final PluginSelector<String, SimplePlugin> joined = PluginSelector.join(PluginSelector.join(hello, indexed), goodbye);
+        final Map<String, Class<? extends SimplePlugin>> impls = new HashMap<>();
+
+        joined.registerImplements(impls);
+
+        assertEquals(Arrays.asList("Hello", "Indexed"), joined.getSupported());
+        assertEquals(GoodbyeWorldPlugin.class, impls.get("Hello"));
+    }
+
+    @Test
+    public void testBuilderSnapshot() {
+        final PluginSelectorBuilder<String, SimplePlugin> builder = new PluginSelectorBuilder<String, SimplePlugin>()
+                .register("Hello", HelloWorldPlugin.class)
+                .register("Indexed", IndexedPlugin.class);
+        final PluginSelector<String, SimplePlugin> snapshot = builder.getSelector();
+
+        builder.remove("Hello").register("Goodbye", GoodbyeWorldPlugin.class);
+
+        assertEquals(Arrays.asList("Hello", "Indexed"), snapshot.getSupported());
+        assertEquals(Arrays.asList("Indexed", "Goodbye"), builder.getSelector().getSupported());
+    }
+
+    @Test
+    public void testBuilderJoin() {
+        final PluginSelectorBuilder<String, SimplePlugin> builder = new PluginSelectorBuilder<String, SimplePlugin>()
+                .register("Hello", HelloWorldPlugin.class);
+        final PluginSelector<String, SimplePlugin> other = new PluginSelector<String, SimplePlugin>() {
+            @Override
+            public List<String> getSupported() {
+                return Arrays.asList("Hello");
+            }
+
+            @Override
+            public void registerImplements(final Map<String, Class<? extends SimplePlugin>> pluginImpl) {
+                pluginImpl.put("Extra", GoodbyeWorldPlugin.class);
+            }
+        };
+
+        // a listed key without an implementation keeps the existing implementation
+        builder.join(other).join(new PluginSelectorBuilder<String, SimplePlugin>().register("Hello", null));
+
+        final Map<String, Class<? extends SimplePlugin>> impls = new HashMap<>();
+
+        builder.getSelector().registerImplements(impls);
+
+        // implementations that were not listed are registered but not supported
+        assertEquals(Arrays.asList("Hello"), builder.getSelector().getSupported());
+        assertEquals(HelloWorldPlugin.class, impls.get("Hello"));
+        assertEquals(GoodbyeWorldPlugin.class, impls.get("Extra"));
+        assertEquals(HelloWorldPlugin.class, builder.getPreferred());
+        assertEquals(null, new PluginSelectorBuilder<String, SimplePlugin>().getPreferred());
+    }
+
+    @Test
+    public void testWeightedSelector() {
+        final Map<String, Integer> weights = new HashMap<>();
+
+        weights.put("Hello", 0);
+        weights.put("Goodbye", 1);
+
+        final WeightedPluginSelector<String, SimplePlugin> weighted = new WeightedPluginSelector<>(
+                PluginSelector.join(
+                        PluginSelector.singletonSelector("Hello", HelloWorldPlugin.class),
+                        PluginSelector.singletonSelector("Goodbye", GoodbyeWorldPlugin.class)),
+                weights);
+        final PluginManager<String, SimplePlugin> manager = new PluginManager<>(weighted);
+        final RoutedPlugin<SimplePlugin> routed = manager.getWeightedImplementation();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(GoodbyeWorldPlugin.class, manager.getPreferred().getClass());
+            assertEquals("Goodbye World!", routed.invoke("toString"));
+        }
+
+        // weights apply without a rebuild
+        weighted.setWeight("Hello", 3.0);
+
+        int hello = 0;
+
+        for (int i = 0; i < 10000; i++) {
+            if (manager.getPreferred() instanceof HelloWorldPlugin) {
+                hello++;
+            }
+        }
+
+        assertTrue(hello > 7000 && hello < 8000);
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author zmichaels
+ */
+public class PersistentOrderedMapTest {
+
+    /**
+     * A key with a poor hash function to force collisions.
+     */
+    private static final class CollidingKey {
+
+        private final int id;
+
+        CollidingKey(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof CollidingKey && ((CollidingKey) other).id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.id % 7;
+        }
+
+        @Override
+        public String toString() {
+            return "key" + this.id;
+        }
+    }
+
+    @Test
+    public void testAgainstLinkedHashMap() {
+        final Random random = new Random(42);
+        final Map<Object, Integer> expected = new LinkedHashMap<>();
+        PersistentOrderedMap<Object, Integer> actual = PersistentOrderedMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            final int id = random.nextInt(500);
+            final Object key = (id % 2 == 0) ? Integer.valueOf(id) : new CollidingKey(id);
+
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                expected.put(key, i);
+                actual = actual.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new ArrayList<>(expected.keySet()), actual.keys());
+
+        for (Map.Entry<Object, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testStructuralSharing() {
+        final PersistentOrderedMap<String, Integer> first = PersistentOrderedMap.<String, Integer>empty()
+                .put("a", 1)
+                .put("b", 2);
+        final PersistentOrderedMap<String, Integer> second = first.remove("a").put("c", 3);
+
+        assertEquals(2, first.size());
+        assertEquals(Integer.valueOf(1), first.get("a"));
+        assertNull(second.get("a"));
+        assertEquals(2, second.size());
+        assertEquals("[b, c]", second.keys().toString());
+    }
+}
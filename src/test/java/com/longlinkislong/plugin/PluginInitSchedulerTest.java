@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017, zmichaels
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.longlinkislong.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author zmichaels
+ */
+public class PluginInitSchedulerTest {
+
+    @Test
+    public void testWaves() {
+        final PluginInitScheduler<String> scheduler = new PluginInitScheduler<>();
+
+        scheduler.add("app", Arrays.asList("db", "cache"))
+                .add("cache", Collections.singletonList("db"))
+                .add("db")
+                .add("log");
+
+        final List<List<String>> waves = scheduler.getWaves();
+
+        assertEquals(3, waves.size());
+        assertTrue(waves.get(0).containsAll(Arrays.asList("db", "log")));
+        assertEquals(Collections.singletonList("cache"), waves.get(1));
+        assertEquals(Collections.singletonList("app"), waves.get(2));
+    }
+
+    @Test(expected = PluginException.class)
+    public void testCycle() {
+        new PluginInitScheduler<String>()
+                .add("a", Collections.singletonList("b"))
+                .add("b", Collections.singletonList("a"))
+                .getWaves();
+    }
+
+    @Test
+    public void testWaveOrder() {
+        final PluginInitScheduler<String> scheduler = new PluginInitScheduler<>();
+
+        for (int i = 20; i > 0; i--) {
+            scheduler.add("plugin" + i);
+        }
+
+        final List<String> expected = new ArrayList<>();
+
+        for (int i = 20; i > 0; i--) {
+            expected.add("plugin" + i);
+        }
+
+        assertEquals(Collections.singletonList(expected), scheduler.getWaves());
+    }
+
+    @Test
+    public void testCycleMembers() {
+        try {
+            new PluginInitScheduler<String>()
+                    .add("downstream", Collections.singletonList("a"))
+                    .add("a", Collections.singletonList("b"))
+                    .add("b", Collections.singletonList("c"))
+                    .add("c", Collections.singletonList("a"))
+                    .getWaves();
+            fail("Expected the cycle to be detected!");
+        } catch (PluginException ex) {
+            assertEquals("Cyclic plugin dependencies: [a, b, c]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailedDependency() throws Exception {
+        final Map<String, Throwable> failures = new PluginInitScheduler<String>()
+                .add("a")
+                .add("b", Collections.singletonList("a"))
+                .add("c", Collections.singletonList("missing"))
+                .run(ForkJoinPool.commonPool(), key -> {
+                    if (key.equals("a")) {
+                        throw new IllegalStateException();
+                    }
+                }, (key, err) -> {
+                })
+                .get();
+
+        assertEquals(3, failures.size());
+    }
+}
@@ -25,9 +25,19 @@
  */
 package com.longlinkislong.plugin;
 
+import java.lang.invoke.MethodHandle;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -82,4 +92,126 @@ public class PluginManagerTest {
 
         assertEquals(msg, hello.toString());
     }
+
+    @Test
+    public void testOverloadedConstructor() {
+        assertEquals("Hi", this.plugins.getImplementation("Greeting", "Hi").toString());
+        assertEquals("Greetings x3", this.plugins.getImplementation("Greeting", 3).toString());
+        assertEquals("Hi", this.plugins.getImplementation("Greeting", "Hi").toString());
+    }
+
+    @Test
+    public void testFactoryKeptAcrossGenerations() {
+        this.plugins.warmUp("HelloWorld", false);
+
+        final MethodHandle factory = this.plugins.getFactory("HelloWorld").get();
+
+        this.plugins.rebuildSelector();
+
+        assertTrue(factory == this.plugins.getFactory("HelloWorld").get());
+    }
+
+    @Test
+    public void testTryGetImplementation() {
+        assertTrue(this.plugins.tryGetImplementation("HelloWorld").isPresent());
+        assertFalse(this.plugins.tryGetImplementation("NotAPlugin").isPresent());
+    }
+
+    @Test(expected = PluginException.class)
+    public void testMissingImplementation() {
+        this.plugins.getImplementation("NotAPlugin");
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final AtomicInteger completed = new AtomicInteger();
+        final Map<String, Throwable> failures = this.plugins
+                .warmUp(ForkJoinPool.commonPool(), true, (key, err) -> completed.incrementAndGet())
+                .get();
+
+        assertTrue(failures.isEmpty());
+        assertEquals(this.plugins.listPlugins().size(), completed.get());
+    }
+
+    @Test
+    public void testPinnedView() throws Exception {
+        try (RegistryView<String, SimplePlugin> view = this.plugins.view()) {
+            final long pinned = view.getGeneration();
+
+            this.plugins.removePlugin("HelloWorld");
+
+            final long rebuilt = this.plugins.rebuildAsync(ForkJoinPool.commonPool()).get();
+
+            assertTrue(rebuilt > pinned);
+            assertFalse(this.plugins.listPlugins().contains("HelloWorld"));
+            assertTrue(view.listPlugins().contains("HelloWorld"));
+            assertTrue(view.tryGetImplementation("HelloWorld").isPresent());
+        }
+    }
+
+    @Test
+    public void testSingleRebuild() throws Exception {
+        final long before;
+
+        try (RegistryView<String, SimplePlugin> view = this.plugins.view()) {
+            before = view.getGeneration();
+        }
+
+        this.plugins.removePlugin("HelloWorld");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                this.plugins.listPlugins();
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        try (RegistryView<String, SimplePlugin> view = this.plugins.view()) {
+            assertEquals(before + 1, view.getGeneration());
+        }
+    }
+
+    @Test
+    public void testReadersServedDuringRebuild() throws Exception {
+        final Queue<Runnable> rebuilds = new ConcurrentLinkedQueue<>();
+
+        this.plugins.setRebuildExecutor(rebuilds::add);
+        this.plugins.listPlugins();
+        this.plugins.registerSelector(PluginSelector.singletonSelector("Goodbye", simpleplugin.GoodbyeWorldPlugin.class));
+
+        // the writer reads its own change
+        assertTrue(this.plugins.listPlugins().contains("Goodbye"));
+
+        this.plugins.removePlugin("Goodbye");
+
+        final CompletableFuture<List<String>> reader = CompletableFuture.supplyAsync(() -> {
+            this.plugins.listPlugins();
+            return this.plugins.listPlugins();
+        }, runnable -> new Thread(runnable).start());
+
+        // other readers keep the current generation and schedule a single rebuild
+        assertTrue(reader.get().contains("Goodbye"));
+        assertEquals(1, rebuilds.size());
+
+        rebuilds.poll().run();
+
+        assertFalse(CompletableFuture.supplyAsync(this.plugins::listPlugins, runnable -> new Thread(runnable).start())
+                .get()
+                .contains("Goodbye"));
+    }
 }
@@ -25,11 +25,34 @@
  */
 package com.longlinkislong.plugin;
 
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import org.junit.Assert;
 import org.junit.Test;
 import simpleplugin.BaseUpgradablePlugin;
+import simpleplugin.BatchPlugin;
+import simpleplugin.CloseablePlugin;
 import simpleplugin.GoodbyeWorldPlugin;
 import simpleplugin.HelloWorldPlugin;
+import simpleplugin.MigratingPlugin;
+import simpleplugin.SlowPlugin;
 import simpleplugin.Stage2UpgradablePlugin;
 
 /**
@@ -128,4 +151,417 @@ public class PluginSwapTest {
         
         Assert.assertEquals("base_upgrade", plugin.invoke("toString"));
     }
+
+    @Test
+    public void testSwapTransaction() {
+        final PluginManager<String, SimplePlugin> mgr = new PluginManager<>();
+
+        mgr.registerSelector(PluginSelector.singletonSelector("first", BaseUpgradablePlugin.class));
+        mgr.registerSelector(PluginSelector.singletonSelector("second", HelloWorldPlugin.class));
+
+        final HotSwapPlugin<SimplePlugin> first = mgr.getHotSwapImplementation("first");
+        final HotSwapPlugin<SimplePlugin> second = mgr.getHotSwapImplementation("second");
+        final SwapTransaction<String, SimplePlugin> swap = mgr.beginSwap()
+                .stage("first", Stage2UpgradablePlugin.class)
+                .stage("second", GoodbyeWorldPlugin.class);
+
+        Assert.assertEquals("base", first.invoke("toString"));
+        Assert.assertEquals("Hello World!", second.invoke("toString"));
+
+        swap.commit();
+
+        Assert.assertTrue(swap.isCommitted());
+        Assert.assertEquals("base_upgrade", first.invoke("toString"));
+        Assert.assertEquals("Goodbye World!", second.invoke("toString"));
+        Assert.assertEquals(GoodbyeWorldPlugin.class, mgr.getImplementation("second").getClass());
+    }
+
+    @Test
+    public void testCloseRetiredPlugin() {
+        final CloseablePlugin first = new CloseablePlugin();
+        final HotSwapPlugin<SimplePlugin> plugin = new HotSwapPlugin<>(first);
+
+        // the swapped out plugin is still running the call
+        Assert.assertEquals(Boolean.FALSE, plugin.invoke("swapDuringCall", plugin));
+        Assert.assertTrue(first.isClosed());
+
+        final CloseablePlugin second = (CloseablePlugin) plugin.current();
+
+        plugin.swapPlugin(new CloseablePlugin());
+
+        Assert.assertTrue(second.isClosed());
+        Assert.assertEquals("closeable", plugin.invoke("toString"));
+    }
+
+    @Test
+    public void testInterceptor() throws Exception {
+        final MethodHandle upperCase = MethodHandles.lookup()
+                .findVirtual(String.class, "toUpperCase", MethodType.methodType(String.class));
+        final AtomicInteger built = new AtomicInteger();
+        final PluginInterceptor interceptor = (method, target) -> {
+            built.incrementAndGet();
+
+            return method.getReturnType() == String.class
+                    ? MethodHandles.filterReturnValue(target, upperCase)
+                    : target;
+        };
+
+        this.greeting.addInterceptor(interceptor);
+
+        Assert.assertEquals("HELLO WORLD!", this.greeting.invoke("toString"));
+        Assert.assertEquals("HELLO WORLD!", this.greeting.invoke("toString"));
+        Assert.assertEquals(1, built.get());
+
+        this.greeting.swapPlugin(this.manager.getImplementation("Goodbye"));
+
+        Assert.assertEquals("GOODBYE WORLD!", this.greeting.invoke("toString"));
+        Assert.assertEquals(2, built.get());
+        Assert.assertTrue(this.greeting.removeInterceptor(interceptor));
+        Assert.assertEquals("Goodbye World!", this.greeting.invoke("toString"));
+    }
+
+    @Test
+    public void testTracer() {
+        final PluginTracer tracer = new PluginTracer(1, 2);
+
+        tracer.setCaptureArguments(true);
+        this.greeting.setTracer(tracer);
+
+        for (int i = 0; i < 3; i++) {
+            this.greeting.invoke("toString");
+        }
+
+        final List<PluginTracer.Trace> traces = tracer.drain();
+
+        Assert.assertEquals(2, traces.size());
+        Assert.assertEquals("toString", traces.get(0).method);
+        Assert.assertEquals(HelloWorldPlugin.class.getTypeName(), traces.get(0).pluginType);
+        Assert.assertFalse(traces.get(0).isFailed());
+        Assert.assertEquals("[]", traces.get(0).arguments);
+        Assert.assertTrue(tracer.drain().isEmpty());
+    }
+
+    @Test
+    public void testBatch() {
+        final List<Object[]> calls = Arrays.asList(new Object[0], new Object[0]);
+
+        Assert.assertEquals(Arrays.asList("Hello World!", "Hello World!"), this.greeting.invokeBatch("toString", calls));
+
+        final HotSwapPlugin<SimplePlugin> batch = new HotSwapPlugin<>(new BatchPlugin());
+        final List<Object[]> values = Arrays.asList(new Object[]{"a"}, new Object[]{"b"});
+
+        Assert.assertEquals(Arrays.asList("batch:a", "batch:b"), batch.invokeBatch("echo", values));
+        Assert.assertEquals("batches: 1", batch.invoke("toString"));
+        Assert.assertEquals("a", batch.invoke("echo", "a"));
+    }
+
+    @Test
+    public void testActor() throws Exception {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final ActorPlugin<SimplePlugin> actor = this.manager.getActorImplementation("Hello", 2, tasks::add);
+        final CompletableFuture<Object> first = actor.invoke("toString");
+        final CompletableFuture<Object> second = actor.invoke("toString");
+        final CompletableFuture<Object> rejected = actor.invoke("toString");
+
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertEquals(2, actor.getQueued());
+
+        tasks.poll().run();
+
+        Assert.assertEquals("Hello World!", first.get());
+        Assert.assertEquals("Hello World!", second.get());
+        Assert.assertEquals(0, actor.getQueued());
+        Assert.assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void testIncrementalUpgrade() throws Exception {
+        this.greeting.swapPlugin(new MigratingPlugin());
+
+        Assert.assertEquals("Hello World!", this.greeting.invoke("toString"));
+
+        final HotSwapPlugin<SimplePlugin> plugin = new HotSwapPlugin<>(this.manager.getImplementation("Goodbye"));
+
+        plugin.swapPluginAsync(new MigratingPlugin(), ForkJoinPool.commonPool()).get();
+
+        Assert.assertEquals("Goodbye World!", plugin.invoke("toString"));
+    }
+
+    @Test
+    public void testQueuedAsyncSwaps() throws Exception {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CompletableFuture<Void> first = this.greeting.swapPluginAsync(new MigratingPlugin(), tasks::add);
+        final CompletableFuture<Void> second = this.greeting.swapPluginAsync(new MigratingPlugin(), tasks::add);
+
+        // the second swap waits for the first migration
+        Assert.assertFalse(second.isDone());
+
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        first.get();
+        second.get();
+
+        Assert.assertEquals("Hello World!", this.greeting.invoke("toString"));
+    }
+
+    @Test
+    public void testManagerMigratesOffLock() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final PluginManager<String, SimplePlugin> mgr = new PluginManager<>();
+
+        mgr.registerSelector(PluginSelector.singletonSelector("Hello", HelloWorldPlugin.class));
+        mgr.setMigrationExecutor(tasks::add);
+
+        final HotSwapPlugin<SimplePlugin> plugin = mgr.getHotSwapImplementation("Hello");
+
+        mgr.registerSelector(PluginSelector.singletonSelector("Hello", MigratingPlugin.class));
+        mgr.rebuildSelector();
+
+        Assert.assertEquals(MigratingPlugin.class.getTypeName(), plugin.getPluginType());
+        Assert.assertFalse(tasks.isEmpty());
+
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        Assert.assertEquals("Hello World!", plugin.invoke("toString"));
+    }
+
+    @Test
+    public void testShadowRollback() {
+        final CloseablePlugin candidate = new CloseablePlugin();
+        final PluginCanary<SimplePlugin> shadow = new PluginCanary<SimplePlugin>(candidate, PluginCanary.Mode.SHADOW)
+                .setComparator(Objects::equals)
+                .setExecutor(Runnable::run)
+                .setMinSamples(3);
+
+        this.greeting.startCanary(shadow);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("Hello World!", this.greeting.invoke("toString"));
+        }
+
+        Assert.assertEquals(3, shadow.getDivergences());
+        Assert.assertEquals(PluginCanary.State.ROLLED_BACK, shadow.getState());
+        Assert.assertFalse(this.greeting.getCanary().isPresent());
+        Assert.assertTrue(candidate.isClosed());
+        Assert.assertEquals("Hello World!", this.greeting.invoke("toString"));
+    }
+
+    @Test(timeout = 10000)
+    public void testRollbackDuringCalls() throws Exception {
+        final CloseablePlugin candidate = new CloseablePlugin();
+        final PluginCanary<SimplePlugin> canary = new PluginCanary<SimplePlugin>(candidate, PluginCanary.Mode.CANARY)
+                .setAutomatic(false)
+                .setPercentage(1.0);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<Object> last = new CompletableFuture<>();
+
+        this.greeting.startCanary(canary);
+
+        final Thread caller = new Thread(() -> {
+            try {
+                Object result = null;
+
+                while (running.get()) {
+                    result = this.greeting.invoke("toString");
+                    calls.incrementAndGet();
+                }
+
+                last.complete(result);
+            } catch (Throwable ex) {
+                last.completeExceptionally(ex);
+            }
+        });
+
+        caller.start();
+
+        while (canary.getCandidateCalls() < 10) {
+            Thread.yield();
+        }
+
+        Assert.assertTrue(canary.rollback());
+
+        // a caller that read the canary before the rollback is served by the current plugin
+        Assert.assertEquals("Hello World!", canary.invoke(this.greeting, "toString", new Object[0]));
+
+        final int rolledBackAt = calls.get();
+
+        while (calls.get() < rolledBackAt + 10) {
+            Thread.yield();
+        }
+
+        running.set(false);
+
+        Assert.assertEquals("Hello World!", last.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(candidate.isClosed());
+    }
+
+    @Test
+    public void testCanaryPromotion() {
+        final PluginCanary<SimplePlugin> canary = new PluginCanary<>(this.manager.getImplementation("Goodbye"), PluginCanary.Mode.CANARY)
+                .setExecutor(Runnable::run)
+                .setPercentage(1.0)
+                .setMinSamples(2);
+
+        this.greeting.startCanary(canary);
+
+        Assert.assertEquals("Goodbye World!", this.greeting.invoke("toString"));
+        Assert.assertEquals(PluginCanary.State.RUNNING, canary.getState());
+        Assert.assertEquals("Goodbye World!", this.greeting.invoke("toString"));
+        Assert.assertEquals(PluginCanary.State.PROMOTED, canary.getState());
+        Assert.assertEquals(GoodbyeWorldPlugin.class.getTypeName(), this.greeting.getPluginType());
+    }
+
+    @Test
+    public void testAdaptiveRouting() {
+        final RoutedPlugin<SimplePlugin> routed = this.manager.getAdaptiveImplementation(Arrays.asList("Hello", "Goodbye"));
+        final String result = routed.invoke("toString").toString();
+
+        Assert.assertTrue(result.equals("Hello World!") || result.equals("Goodbye World!"));
+
+        final BanditRoutingPolicy policy = new BanditRoutingPolicy(2);
+
+        policy.record(0, 1000, false);
+        policy.record(1, 100, false);
+
+        int fastest = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            if (policy.select() == 1) {
+                fastest++;
+            }
+        }
+
+        Assert.assertTrue(fastest > 900);
+    }
+
+    @Test
+    public void testRemoteHost() throws Exception {
+        try (RemotePluginHost host = RemotePluginHost.launch(HelloWorldPlugin.class)) {
+            final HotSwapPlugin<SimplePlugin> remote = host.getPlugin(SimplePlugin.class);
+
+            Assert.assertEquals("Hello World!", remote.invoke("toString"));
+            Assert.assertEquals("Hello World!", host.getProxy(SimplePlugin.class).toString());
+
+            try {
+                host.invoke("missing");
+                Assert.fail("Expected the remote call to fail!");
+            } catch (PluginException ex) {
+                Assert.assertTrue(host.isAlive());
+            }
+        }
+    }
+
+    @Test
+    public void testRemoteTimeout() throws Exception {
+        try (RemotePluginHost host = RemotePluginHost.launch(SlowPlugin.class)) {
+            host.setCallTimeout(200, TimeUnit.MILLISECONDS);
+
+            try {
+                host.invoke("toString");
+                Assert.fail("Expected the remote call to time out!");
+            } catch (PluginException ex) {
+                Assert.assertTrue(ex.getMessage().startsWith("Remote call timed out"));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoteRecordValidation() {
+        final Predicate<String> allowed = RemoteCodec.DEFAULT_RESULT_TYPES::contains;
+        final RemoteCodec.Response list = RemoteCodec.decodeResponse(
+                RemoteCodec.encodeResponse(1L, false, new ArrayList<>(Arrays.asList("a", 1))), allowed);
+
+        Assert.assertFalse(list.failed);
+        Assert.assertEquals(Arrays.asList("a", 1), list.value);
+
+        // serialized results may only contain allowed classes
+        final RemoteCodec.Response date = RemoteCodec.decodeResponse(RemoteCodec.encodeResponse(2L, false, new Date()), allowed);
+
+        Assert.assertEquals(2L, date.id);
+        Assert.assertTrue(date.failed);
+
+        // a length past the end of the record is rejected before allocating
+        final byte[] string = RemoteCodec.encodeResponse(3L, false, "abc");
+
+        string[Long.BYTES + 2] = 0x7F;
+
+        try {
+            RemoteCodec.decodeResponse(string, allowed);
+            Assert.fail("Expected the corrupt response to be rejected!");
+        } catch (UncheckedIOException ex) {
+            Assert.assertTrue(ex.getCause() instanceof StreamCorruptedException);
+        }
+
+        final ByteBuffer memory = ByteBuffer.allocateDirect(SharedRingBuffer.sizeOf(64));
+        final SharedRingBuffer ring = new SharedRingBuffer(memory);
+
+        Assert.assertTrue(ring.offer(new byte[8]));
+
+        memory.putInt(SharedRingBuffer.HEADER_SIZE, Integer.MAX_VALUE);
+
+        try {
+            ring.poll();
+            Assert.fail("Expected the corrupt record to be rejected!");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage().startsWith("Corrupt ring buffer"));
+        }
+    }
+
+    @Test
+    public void testGuardedFallback() {
+        final PluginManager<String, SimplePlugin> mgr = new PluginManager<>();
+
+        mgr.registerSelector(PluginSelector.singletonSelector("Slow", SlowPlugin.class));
+        mgr.registerSelector(PluginSelector.singletonSelector("Hello", HelloWorldPlugin.class));
+        mgr.setExecutionPolicy("Slow", new ExecutionPolicy(1, 50, TimeUnit.MILLISECONDS)
+                .setFailureThreshold(1)
+                .setOpenDuration(1, TimeUnit.MINUTES), "Hello");
+
+        final GuardedPlugin<SimplePlugin> guarded = mgr.getGuardedImplementation("Slow");
+
+        try {
+            guarded.invoke("toString");
+            Assert.fail("Expected the call to time out!");
+        } catch (PluginException ex) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, guarded.getCircuitBreaker().getState());
+        }
+
+        Assert.assertEquals("Hello World!", guarded.invoke("toString"));
+        mgr.removePlugin("Slow");
+    }
+
+    @Test
+    public void testLateBreakerOutcomes() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(new ExecutionPolicy(1, 1, TimeUnit.SECONDS)
+                .setFailureThreshold(1)
+                .setOpenDuration(200, TimeUnit.MILLISECONDS));
+        final CircuitBreaker.Permit first = breaker.tryAcquire().get();
+        final CircuitBreaker.Permit late = breaker.tryAcquire().get();
+
+        breaker.onFailure(first);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // a late failure of a call made while closed does not restart the open duration
+        Thread.sleep(120);
+        breaker.onFailure(late);
+        Thread.sleep(120);
+
+        final CircuitBreaker.Permit trial = breaker.tryAcquire().get();
+
+        Assert.assertTrue(trial.isTrial());
+        Assert.assertFalse(breaker.tryAcquire().isPresent());
+
+        // only the trial call closes the breaker
+        breaker.onSuccess(late, 0L);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(trial, 0L);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
 }
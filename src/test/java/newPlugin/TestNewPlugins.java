@@ -6,9 +6,22 @@
 package newPlugin;
 
 import com.longlinkislong.plugin.BasicPluginHandler;
+import com.longlinkislong.plugin.BroadcastResult;
 import com.longlinkislong.plugin.Plugin;
+import com.longlinkislong.plugin.PluginDescriptor;
 import com.longlinkislong.plugin.PluginScanner;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -62,6 +75,38 @@ public class TestNewPlugins {
         public String say() { return "Woof"; }
     }
     
+    @Plugin
+    public static class Bird implements Animal{
+        
+        @Plugin.Lookup
+        public static final String PLUGIN_ID = "Bird";
+        
+        @Plugin.Name
+        public static final String PLUGIN_NAME = "Songbird";
+        
+        @Plugin.Description
+        public static final String PLUGIN_DESCRIPTION = "A bird that sings";
+        
+        public static final int CONSTANT_0 = 0;
+        public static final int CONSTANT_1 = 1;
+        
+        @Override
+        public String say() { return "Tweet"; }
+    }
+    
+    static boolean snakeInitialized = false;
+    
+    @Plugin(lookup = "Snake", description = "Loaded lazily")
+    public static class Snake implements Animal{
+        
+        static {
+            snakeInitialized = true;
+        }
+        
+        @Override
+        public String say() { return "Hiss"; }
+    }
+    
     @Test
     public void TestBasic(){
         PluginScanner scanner = new PluginScanner();
@@ -96,4 +141,96 @@ public class TestNewPlugins {
         cat = scanner.newInstance(Animal.class, "Cat").get();
         assertEquals(cat.say(), "Bzzrrt");
     }
+    
+    @Test
+    public void TestMetadata(){
+        PluginScanner scanner = new PluginScanner();
+        scanner.addPluginHandler(new BasicPluginHandler(Animal.class));
+        
+        PluginDescriptor bird = scanner.scan(Bird.class).get(0);
+        
+        assertEquals("Bird", bird.lookup);
+        assertEquals("Songbird", bird.name);
+        assertEquals("A bird that sings", bird.description);
+    }
+    
+    @Test
+    public void TestLazyMetadata(){
+        PluginScanner scanner = new PluginScanner();
+        scanner.addPluginHandler(new BasicPluginHandler(Animal.class));
+        scanner.setInitializeClasses(false);
+        
+        PluginDescriptor snake = scanner.scan(Snake.class).get(0);
+        
+        assertEquals("Snake", snake.lookup);
+        assertEquals("Loaded lazily", snake.description);
+        assertFalse(snakeInitialized);
+        
+        assertEquals("Hiss", scanner.newInstance(Animal.class, "Snake").get().say());
+        assertTrue(snakeInitialized);
+    }
+    
+    @Test
+    public void TestCapabilities(){
+        PluginScanner scanner = new PluginScanner();
+        scanner.addPluginHandler(new BasicPluginHandler(Animal.class));
+        
+        scanner.scan(Cat.class, Dog.class);
+        
+        assertEquals(2, scanner.listPlugins(Animal.class).size());
+        assertEquals(1, scanner.listPlugins(Cat.class).size());
+        assertTrue(scanner.listPlugins(Runnable.class).isEmpty());
+        
+        // replacing a lookup should drop the old class from the index
+        scanner.scan(CatModded.class);
+        
+        assertEquals(2, scanner.listPlugins(Animal.class).size());
+        assertTrue(scanner.listPlugins(Cat.class).isEmpty());
+    }
+    
+    @Test
+    public void TestBroadcast() throws Exception {
+        PluginScanner scanner = new PluginScanner();
+        scanner.addPluginHandler(new BasicPluginHandler(Animal.class));
+        
+        scanner.scan(Cat.class, Dog.class);
+        
+        List<BroadcastResult<String>> results = scanner
+                .broadcast(Animal.class, Animal::say, ForkJoinPool.commonPool(), 1, TimeUnit.SECONDS)
+                .get();
+        
+        assertEquals(2, results.size());
+        assertTrue(results.stream().allMatch(BroadcastResult::isSuccess));
+        assertEquals(new HashSet<>(Arrays.asList("Meow", "Woof")), results.stream()
+                .map(result -> result.result)
+                .collect(Collectors.toSet()));
+        
+        // a call that takes too long is reported as timed out
+        results = scanner
+                .broadcast(Dog.class, dog -> {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+                    return dog.say();
+                }, ForkJoinPool.commonPool(), 10, TimeUnit.MILLISECONDS)
+                .get();
+        
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).isTimedOut());
+        
+        // calls waiting for a thread are not timed out before they start
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        
+        try {
+            results = scanner
+                    .broadcast(Animal.class, animal -> {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(300));
+                        return animal.say();
+                    }, single, 450, TimeUnit.MILLISECONDS)
+                    .get();
+            
+            assertEquals(2, results.size());
+            assertTrue(results.stream().allMatch(BroadcastResult::isSuccess));
+        } finally {
+            single.shutdown();
+        }
+    }
 }
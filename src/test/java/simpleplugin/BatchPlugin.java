@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package simpleplugin;
+
+import com.longlinkislong.plugin.Plugin;
+import com.longlinkislong.plugin.SimplePlugin;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ *
+ * @author zmichaels
+ */
+public class BatchPlugin implements SimplePlugin {
+    private int batches = 0;
+
+    public String echo(String value) {
+        return value;
+    }
+
+    @Plugin.Batch("echo")
+    public List<String> echoAll(List<Object[]> calls) {
+        this.batches++;
+
+        return calls.stream()
+                .map(call -> "batch:" + call[0])
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return "batches: " + this.batches;
+    }
+}
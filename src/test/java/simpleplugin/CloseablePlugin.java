@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package simpleplugin;
+
+import com.longlinkislong.plugin.HotSwapPlugin;
+import com.longlinkislong.plugin.SimplePlugin;
+
+/**
+ *
+ * @author zmichaels
+ */
+public class CloseablePlugin implements SimplePlugin, AutoCloseable {
+    private volatile boolean closed = false;
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    public boolean swapDuringCall(final HotSwapPlugin<SimplePlugin> owner) {
+        owner.swapPlugin(new CloseablePlugin());
+
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "closeable";
+    }
+}
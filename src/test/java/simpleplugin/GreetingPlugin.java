@@ -18,6 +18,10 @@ public class GreetingPlugin implements SimplePlugin {
         this.greeting = greeting;
     }
 
+    public GreetingPlugin(Integer count) {
+        this.greeting = "Greetings x" + count;
+    }
+
     @Override
     public String toString() {
         return this.greeting;
@@ -0,0 +1,32 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package simpleplugin;
+
+import com.longlinkislong.plugin.IncrementalUpgrade;
+import com.longlinkislong.plugin.SimplePlugin;
+
+/**
+ *
+ * @author zmichaels
+ */
+public class MigratingPlugin implements SimplePlugin, IncrementalUpgrade<SimplePlugin> {
+    private final StringBuffer value = new StringBuffer();
+
+    @Override
+    public boolean migrate(SimplePlugin oldPlugin) {
+        final String old = oldPlugin.toString();
+
+        // copies one character per chunk
+        this.value.append(old.charAt(this.value.length()));
+
+        return this.value.length() < old.length();
+    }
+
+    @Override
+    public String toString() {
+        return this.value.toString();
+    }
+}
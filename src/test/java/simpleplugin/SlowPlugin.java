@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package simpleplugin;
+
+import com.longlinkislong.plugin.SimplePlugin;
+
+/**
+ * Plugin that does not answer in time.
+ *
+ * @author zmichaels
+ */
+public class SlowPlugin implements SimplePlugin {
+
+    @Override
+    public String toString() {
+        try {
+            Thread.sleep(10_000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        return "Too late!";
+    }
+}
@@ -5,11 +5,18 @@
  */
 package spitest;
 
+import com.longlinkislong.plugin.BasicPluginHandler;
 import com.longlinkislong.plugin.PluginDescriptor;
+import com.longlinkislong.plugin.PluginHandler;
 import com.longlinkislong.plugin.PluginScanner;
+import com.longlinkislong.plugin.SimplePlugin;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,4 +61,49 @@ public class SPITest {
 
         assertFalse("woof".equals(scanner.newInstance(Animal.class, "plugins:dog").get().say()));
     }
+
+    @Test
+    public void testRouting() {
+        final PluginScanner scanner = new PluginScanner();
+        final AtomicInteger offered = new AtomicInteger();
+        final PluginHandler<SimplePlugin> other = new BasicPluginHandler<SimplePlugin>(SimplePlugin.class) {
+            @Override
+            public boolean register(final PluginDescriptor plugin) {
+                offered.incrementAndGet();
+                return super.register(plugin);
+            }
+        };
+
+        scanner.addPluginHandler(other);
+
+        final List<PluginDescriptor> loadedPlugins = scanner.scan(Cat.class, Dog.class);
+
+        assertEquals(2, loadedPlugins.size());
+        assertEquals("Handler offered a plugin it does not support!", 0, offered.get());
+        assertNotSame(other, scanner.getPluginHandler(Cat.class).get());
+        assertEquals("meow", scanner.newInstance(Animal.class, "plugins:cat").get().say());
+    }
+
+    @Test
+    public void testHandlerInvalidation() {
+        final PluginScanner scanner = new PluginScanner();
+        final PluginHandler<?> original = scanner.getPluginHandler(Cat.class).get();
+        final PluginHandler<Animal> added = new BasicPluginHandler<>(Animal.class);
+
+        assertTrue(scanner.addPluginHandler(added));
+        assertSame(added, scanner.getPluginHandler(Cat.class).get());
+
+        scanner.scan(Cat.class);
+
+        assertEquals(1, added.listPlugins().size());
+        assertTrue(original.listPlugins().isEmpty());
+
+        assertTrue(scanner.removePluginHandler(added));
+        assertSame(original, scanner.getPluginHandler(Cat.class).get());
+
+        scanner.scan(Dog.class);
+
+        assertEquals(1, added.listPlugins().size());
+        assertEquals(1, original.listPlugins().size());
+    }
 }